@@ -13,6 +13,14 @@ repositories {
     jcenter()
 }
 
+// JMH benchmarks live in their own source set on top of the main classes
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets["main"].output + sourceSets["main"].compileClasspath
+        runtimeClasspath += sourceSets["main"].output + sourceSets["main"].runtimeClasspath
+    }
+}
+
 dependencies {
     // Logging
     compile("org.slf4j:slf4j-api:1.7.26")
@@ -27,6 +35,10 @@ dependencies {
     // JUnit Jupiter test framework
     testCompile("org.junit.jupiter:junit-jupiter-api:5.4.0")
     testRuntime("org.junit.jupiter:junit-jupiter-engine:5.4.0")
+
+    // JMH benchmarks
+    "jmhCompile"("org.openjdk.jmh:jmh-core:1.21")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.21")
 }
 
 val run by tasks.getting(JavaExec::class) {
@@ -40,6 +52,15 @@ tasks {
     }
 }
 
+// Run the benchmarks passing JMH options if any, e.g. gradle jmh -PjmhArgs="GetBenchmark -t 4 -p valueSize=100"
+val jmh by tasks.registering(JavaExec::class) {
+    description = "Runs JMH benchmarks"
+    group = "verification"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    main = "org.openjdk.jmh.Main"
+    args = (project.findProperty("jmhArgs") as String? ?: "").split(" ").filter { it.isNotEmpty() }
+}
+
 application {
     // Define the main class for the application
     mainClassName = "ru.mail.polis.Client"
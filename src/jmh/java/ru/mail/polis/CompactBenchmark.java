@@ -0,0 +1,45 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of a full {@link DAO#compact()} of the key space overwritten {@code passes} times.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CompactBenchmark extends DAOBenchmark {
+    @Param("3")
+    int passes;
+
+    @Setup(Level.Invocation)
+    public void setup() throws IOException {
+        open();
+        for (int pass = 0; pass < passes; pass++) {
+            fill();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        close();
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        dao.compact();
+    }
+}
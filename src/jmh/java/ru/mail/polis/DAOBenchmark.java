@@ -0,0 +1,81 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Base of the {@link DAO} benchmarks: a storage in a temporary directory and keys of the configured sizes.
+ *
+ * <p>Benchmarks are forked with the same heap limit {@link DAOFactory} enforces.
+ * Thread count is set by the JMH {@code -t} option.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx128m")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class DAOBenchmark {
+    @Param({"16", "64"})
+    int keySize;
+
+    @Param({"100", "1024"})
+    int valueSize;
+
+    @Param("100000")
+    int keys;
+
+    File data;
+    DAO dao;
+
+    void open() throws IOException {
+        data = java.nio.file.Files.createTempDirectory("benchmark").toFile();
+        dao = DAOFactory.create(data);
+    }
+
+    void close() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    /**
+     * Get the {@code i}-th key, keys are ordered as their numbers.
+     *
+     * <p>Keys are compared as signed bytes, so the number is stored in its last bytes seven bits per byte,
+     * keeping every byte below {@code 0x80}.
+     */
+    @NotNull
+    ByteBuffer key(final long i) {
+        final byte[] key = new byte[keySize];
+        long rest = i;
+        for (int b = keySize - 1; b >= keySize - Long.BYTES; b--) {
+            key[b] = (byte) (rest & 0x7F);
+            rest >>>= 7;
+        }
+        return ByteBuffer.wrap(key);
+    }
+
+    @NotNull
+    ByteBuffer value() {
+        final byte[] value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        return ByteBuffer.wrap(value);
+    }
+
+    /**
+     * Write the even keys of the key space, so that the odd ones are absent.
+     */
+    void fill() throws IOException {
+        for (int i = 0; i < keys; i++) {
+            dao.upsert(key(2L * i), value());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Point reads of present and absent keys from compacted tables.
+ */
+public class GetBenchmark extends DAOBenchmark {
+    @Setup
+    public void setup() throws IOException {
+        open();
+        fill();
+        dao.compact();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        close();
+    }
+
+    @Benchmark
+    public ByteBuffer hit() throws IOException {
+        return dao.get(key(2L * ThreadLocalRandom.current().nextInt(keys)));
+    }
+
+    @Benchmark
+    public boolean miss() throws IOException {
+        try {
+            dao.get(key(2L * ThreadLocalRandom.current().nextInt(keys) + 1));
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+}
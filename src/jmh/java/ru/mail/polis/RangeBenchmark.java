@@ -0,0 +1,40 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Scans of {@code length} records starting at random keys of compacted tables.
+ */
+public class RangeBenchmark extends DAOBenchmark {
+    @Param({"10", "100", "1000"})
+    int length;
+
+    @Setup
+    public void setup() throws IOException {
+        open();
+        fill();
+        dao.compact();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        close();
+    }
+
+    @Benchmark
+    public void range(final Blackhole blackhole) throws IOException {
+        final long from = ThreadLocalRandom.current().nextInt(keys);
+        final Iterator<Record> records = dao.range(key(2L * from), key(2L * (from + length)));
+        while (records.hasNext()) {
+            blackhole.consume(records.next());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write throughput, the keys cycle over the key space, so flushes and compactions keep the disk usage bounded.
+ */
+public class UpsertBenchmark extends DAOBenchmark {
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup
+    public void setup() throws IOException {
+        open();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        close();
+    }
+
+    @Benchmark
+    public void sequential() throws IOException {
+        dao.upsert(key(counter.getAndIncrement() % keys), value());
+    }
+
+    @Benchmark
+    public void random() throws IOException {
+        dao.upsert(key(ThreadLocalRandom.current().nextInt(keys)), value());
+    }
+}
@@ -0,0 +1,52 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking companion of a {@link DAO} obtained via {@link DAOFactory#async(DAO, Config)}.
+ *
+ * <p>Operations run on a bounded executor. Once too many of them are pending, new ones fail fast
+ * with {@link RejectedExecutionException} instead of queueing without limit.
+ * Failures complete the futures exceptionally with the exceptions the {@link DAO} throws.
+ */
+public interface AsyncDAO extends Closeable {
+    /**
+     * Get value for the {@code key}, the future fails with {@link NoSuchElementException} if no value present.
+     */
+    @NotNull
+    CompletableFuture<ByteBuffer> getAsync(@NotNull ByteBuffer key);
+
+    @NotNull
+    CompletableFuture<Void> upsertAsync(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value);
+
+    @NotNull
+    CompletableFuture<Void> removeAsync(@NotNull ByteBuffer key);
+
+    /**
+     * Get {@link Record}s with keys between {@code from} inclusive and {@code to} exclusive
+     * or till the end if {@code to} is {@code null}.
+     *
+     * <p>Every subscriber reads the range on its own. Records are read only as the subscriber requests them.
+     */
+    @NotNull
+    Flow.Publisher<Record> rangeAsync(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to);
+
+    /**
+     * Wait for the pending operations and close the underlying {@link DAO}.
+     */
+    @Override
+    void close() throws IOException;
+}
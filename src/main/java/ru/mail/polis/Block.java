@@ -0,0 +1,364 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Data block of an {@link SSTable}: cells sorted by {@link Cell#VERSION_COMPARATOR} followed by the restart offsets
+ * and their count.
+ *
+ * <p>Every cell is stored as the size of the key prefix shared with the previous cell, the size of the rest of the key,
+ * the rest of the key bytes, sequence number, value size ({@code -1} for a tombstone) and value bytes.
+ * Every {@link Config#restartInterval()}-th cell is a restart point storing its key in full, so a seek binary searches
+ * the restart points and then decodes at most that many keys.
+ */
+final class Block {
+    private static final int TOMBSTONE = -1;
+    private static final int ENTRY_HEADER = 2 * Integer.BYTES;
+    private static final int VALUE_HEADER = Long.BYTES + Integer.BYTES;
+    private static final int ARENA_CHUNK = 4 * 1024;
+
+    private final ByteBuffer data;
+    private final int restartCount;
+    private final int restarts;
+
+    Block(@NotNull final ByteBuffer data) {
+        this.data = data;
+        this.restartCount = data.getInt(data.limit() - Integer.BYTES);
+        this.restarts = data.limit() - Integer.BYTES - restartCount * Integer.BYTES;
+    }
+
+    int sizeInBytes() {
+        return data.limit();
+    }
+
+    /**
+     * Get a {@link Cursor} at the first cell.
+     */
+    @NotNull
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Get the newest {@link Cell} with exactly the {@code key} and sequence number not greater than
+     * {@code snapshot} or {@code null} if none.
+     */
+    @Nullable
+    Cell get(
+            @NotNull final ByteBuffer key,
+            final long generation,
+            final long snapshot) {
+        final Cursor cursor = new Cursor();
+        cursor.seek(key);
+        while (cursor.hasNext() && cursor.compareTo(key) == 0) {
+            if (cursor.sequence() <= snapshot) {
+                return cursor.next(generation);
+            }
+            cursor.skip();
+        }
+        return null;
+    }
+
+    /**
+     * Get a {@link ReverseCursor} before the first cell with key greater than or equal to {@code to}
+     * or after the last cell if {@code to} is {@code null}.
+     */
+    @NotNull
+    ReverseCursor reverseCursor(
+            @Nullable final ByteBuffer to,
+            final long generation) {
+        return new ReverseCursor(to, generation);
+    }
+
+    private int restart(final int i) {
+        return data.getInt(restarts + i * Integer.BYTES);
+    }
+
+    /**
+     * Get index of the last restart point with key less than {@code target} or {@code -1} if none.
+     */
+    private int restartBefore(@NotNull final ByteBuffer target) {
+        int left = 0;
+        int right = restartCount - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final int entry = restart(mid);
+            final int cmp = Bytes.compare(
+                    data,
+                    entry + ENTRY_HEADER,
+                    data.getInt(entry + Integer.BYTES),
+                    target);
+            if (cmp < 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return right;
+    }
+
+    /**
+     * Decodes the cells one by one keeping the current key in a reusable array.
+     *
+     * <p>Keys of the returned {@link Cell}s are slices of the block for restart points
+     * and of arena chunks shared by many keys otherwise, so decoding allocates no key storage per cell.
+     */
+    final class Cursor {
+        private byte[] key = new byte[64];
+        private int keyLength;
+        private int shared;
+        private int keyOffset;
+        // Offset of the next cell to decode
+        private int offset;
+        // Offset of the sequence number of the decoded cell not returned yet or -1
+        private int value = -1;
+        @Nullable
+        private byte[] arena;
+        private int arenaUsed;
+
+        /**
+         * Move to the first cell with key greater than or equal to {@code target}.
+         */
+        void seek(@NotNull final ByteBuffer target) {
+            // The versions of the target may start before a restart point with the same key
+            final int restart = restartBefore(target);
+            offset = restart < 0 ? 0 : restart(restart);
+            value = -1;
+
+            while (decode()) {
+                if (compareTo(target) >= 0) {
+                    return;
+                }
+            }
+            value = -1;
+        }
+
+        boolean hasNext() {
+            return value >= 0 || decode();
+        }
+
+        @NotNull
+        Cell next(final long generation) {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted block");
+            }
+
+            final ByteBuffer cellKey = shared == 0 ? Bytes.slice(data, keyOffset, keyLength) : copyKey();
+            final long sequence = data.getLong(value);
+            final int valueSize = data.getInt(value + Long.BYTES);
+            final Cell result = valueSize == TOMBSTONE
+                    ? Cell.tombstone(cellKey, generation, sequence)
+                    : Cell.of(cellKey, Bytes.slice(data, value + VALUE_HEADER, valueSize), generation, sequence);
+            value = -1;
+            return result;
+        }
+
+        /**
+         * Get the sequence number of the decoded cell.
+         */
+        long sequence() {
+            assert value >= 0;
+            return data.getLong(value);
+        }
+
+        /**
+         * Skip the decoded cell without materializing it.
+         */
+        void skip() {
+            value = -1;
+        }
+
+        /**
+         * Compare the key of the decoded cell with {@code target}.
+         */
+        int compareTo(@NotNull final ByteBuffer target) {
+            return Bytes.compare(key, keyLength, target);
+        }
+
+        /**
+         * Decode the next cell key.
+         *
+         * @return {@code false} if there are no more cells
+         */
+        private boolean decode() {
+            if (offset >= restarts) {
+                return false;
+            }
+
+            shared = data.getInt(offset);
+            final int unshared = data.getInt(offset + Integer.BYTES);
+            keyOffset = offset + ENTRY_HEADER;
+            keyLength = shared + unshared;
+            if (keyLength > key.length) {
+                final byte[] grown = new byte[Math.max(keyLength, key.length * 2)];
+                System.arraycopy(key, 0, grown, 0, shared);
+                key = grown;
+            }
+            for (int i = 0; i < unshared; i++) {
+                key[shared + i] = data.get(keyOffset + i);
+            }
+
+            value = keyOffset + unshared;
+            offset = value + VALUE_HEADER + Math.max(0, data.getInt(value + Long.BYTES));
+            return true;
+        }
+
+        /**
+         * Copy the decoded key escaping to the caller into the arena shared by the keys of the cursor.
+         *
+         * @return a single buffer over the copy, its position is where the copy starts in the arena
+         */
+        @NotNull
+        private ByteBuffer copyKey() {
+            if (arena == null || arena.length - arenaUsed < keyLength) {
+                arena = new byte[Math.max(ARENA_CHUNK, keyLength)];
+                arenaUsed = 0;
+            }
+            System.arraycopy(key, 0, arena, arenaUsed, keyLength);
+            final ByteBuffer result = ByteBuffer.wrap(arena, arenaUsed, keyLength);
+            arenaUsed += keyLength;
+            return result;
+        }
+    }
+
+    /**
+     * Returns the cells backwards.
+     *
+     * <p>Keys can only be restored forward, so a restart interval at a time is decoded by a {@link Cursor}
+     * and its cells are returned from the last one.
+     */
+    final class ReverseCursor {
+        private final Cursor cursor = new Cursor();
+        @Nullable
+        private final ByteBuffer to;
+        private final long generation;
+        private Cell[] cells = new Cell[16];
+        private int count;
+        // Index of the restart point to decode next
+        private int restart;
+
+        ReverseCursor(
+                @Nullable final ByteBuffer to,
+                final long generation) {
+            this.to = to;
+            this.generation = generation;
+            this.restart = to == null ? restartCount - 1 : restartBefore(to);
+        }
+
+        boolean hasNext() {
+            while (count == 0 && restart >= 0) {
+                decodeInterval();
+            }
+            return count > 0;
+        }
+
+        @NotNull
+        Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted block");
+            }
+
+            final Cell result = cells[--count];
+            cells[count] = null;
+            return result;
+        }
+
+        private void decodeInterval() {
+            final int end = restart + 1 == restartCount ? restarts : restart(restart + 1);
+            cursor.offset = restart(restart);
+            cursor.value = -1;
+            while (cursor.offset < end && cursor.decode()) {
+                if (to != null && cursor.compareTo(to) >= 0) {
+                    break;
+                }
+                if (count == cells.length) {
+                    cells = Arrays.copyOf(cells, count * 2);
+                }
+                cells[count++] = cursor.next(generation);
+            }
+            restart--;
+        }
+    }
+
+    /**
+     * Encodes cells with shared key prefixes into a {@link BlockBuilder}, marking restart points as its entries.
+     */
+    static final class Writer {
+        private final BlockBuilder builder;
+        private final int restartInterval;
+        @Nullable
+        private ByteBuffer previous;
+        private int sinceRestart;
+
+        Writer(
+                final int capacity,
+                final int restartInterval) {
+            this.builder = new BlockBuilder(capacity);
+            this.restartInterval = restartInterval;
+        }
+
+        void append(@NotNull final Cell cell) {
+            final ByteBuffer key = cell.getKey();
+            int shared = 0;
+            if (previous == null || sinceRestart == restartInterval) {
+                builder.startEntry();
+                sinceRestart = 0;
+            } else {
+                shared = commonPrefix(previous, key);
+            }
+            sinceRestart++;
+
+            final int unshared = key.remaining() - shared;
+            builder.putInt(shared);
+            builder.putInt(unshared);
+            builder.put(Bytes.slice(key, key.position() + shared, unshared));
+            builder.putLong(cell.getSequence());
+            final ByteBuffer value = cell.getValue();
+            if (value == null) {
+                builder.putInt(TOMBSTONE);
+            } else {
+                builder.putInt(value.remaining());
+                builder.put(value);
+            }
+            previous = key;
+        }
+
+        boolean isEmpty() {
+            return builder.isEmpty();
+        }
+
+        int sizeInBytes() {
+            return builder.sizeInBytes();
+        }
+
+        /**
+         * Get the block contents, valid until {@link #reset()}.
+         */
+        @NotNull
+        ByteBuffer finish() {
+            return builder.finish();
+        }
+
+        void reset() {
+            builder.reset();
+            previous = null;
+            sinceRestart = 0;
+        }
+
+        private static int commonPrefix(
+                @NotNull final ByteBuffer a,
+                @NotNull final ByteBuffer b) {
+            final int length = Math.min(a.remaining(), b.remaining());
+            int i = 0;
+            while (i < length && a.get(a.position() + i) == b.get(b.position() + i)) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
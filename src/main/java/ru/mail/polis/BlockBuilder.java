@@ -0,0 +1,86 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Accumulates entries of a block followed by the entry offsets and the entry count.
+ */
+final class BlockBuilder {
+    private ByteBuffer buffer;
+    private int[] offsets = new int[16];
+    private int count;
+
+    BlockBuilder(final int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Mark the current position as the beginning of the next entry.
+     */
+    void startEntry() {
+        if (count == offsets.length) {
+            final int[] grown = new int[count * 2];
+            System.arraycopy(offsets, 0, grown, 0, count);
+            offsets = grown;
+        }
+        offsets[count++] = buffer.position();
+    }
+
+    void putInt(final int value) {
+        ensureRemaining(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    void putLong(final long value) {
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    void put(@NotNull final ByteBuffer bytes) {
+        ensureRemaining(bytes.remaining());
+        buffer.put(bytes.duplicate());
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Get size of the block if finished now.
+     */
+    int sizeInBytes() {
+        return buffer.position() + (count + 1) * Integer.BYTES;
+    }
+
+    /**
+     * Append the entry offsets and count and get the block contents.
+     *
+     * <p>The result is valid until {@link #reset()}.
+     */
+    @NotNull
+    ByteBuffer finish() {
+        ensureRemaining((count + 1) * Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(offsets[i]);
+        }
+        buffer.putInt(count);
+        return buffer.flip();
+    }
+
+    void reset() {
+        buffer.clear();
+        count = 0;
+    }
+
+    private void ensureRemaining(final int size) {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        grown.put(buffer.flip());
+        buffer = grown;
+    }
+}
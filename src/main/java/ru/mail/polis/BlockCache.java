@@ -0,0 +1,175 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Block} cache shared by all the {@link SSTable}s of a {@link MyDAO} and bounded by a byte budget.
+ *
+ * <p>The cache is split into shards, each evicting its least recently used blocks on its own,
+ * so concurrent readers rarely contend for the same lock.
+ */
+final class BlockCache {
+    private static final int SHARDS = 16;
+
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    BlockCache(final long capacity) {
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacity / SHARDS);
+        }
+    }
+
+    /**
+     * Loads a {@link Block} missing in the cache.
+     */
+    interface Loader {
+        @NotNull
+        Block load() throws IOException;
+    }
+
+    /**
+     * Get the block at {@code offset} of the {@code table}, loading it on a miss.
+     */
+    @NotNull
+    Block get(
+            final long table,
+            final long offset,
+            @NotNull final Loader loader) throws IOException {
+        final Key key = new Key(table, offset);
+        final Shard shard = shards[(key.hashCode() & Integer.MAX_VALUE) % SHARDS];
+        final Block cached = shard.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        final Block loaded = loader.load();
+        shard.put(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * Drop all the blocks of the {@code table}.
+     */
+    void invalidate(final long table) {
+        for (final Shard shard : shards) {
+            shard.invalidate(table);
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the share of lookups served from the cache.
+     */
+    double hitRate() {
+        final long h = hits();
+        final long total = h + misses();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    long sizeInBytes() {
+        long result = 0;
+        for (final Shard shard : shards) {
+            result += shard.sizeInBytes();
+        }
+        return result;
+    }
+
+    private static final class Key {
+        private final long table;
+        private final long offset;
+
+        Key(
+                final long table,
+                final long offset) {
+            this.table = table;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key other = (Key) o;
+            return table == other.table && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(table) * 31 + Long.hashCode(offset);
+        }
+    }
+
+    private final class Shard {
+        private final long capacity;
+        private final Map<Key, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long size;
+
+        Shard(final long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Block get(@NotNull final Key key) {
+            return blocks.get(key);
+        }
+
+        synchronized void put(
+                @NotNull final Key key,
+                @NotNull final Block block) {
+            if (block.sizeInBytes() > capacity) {
+                return;
+            }
+
+            final Block previous = blocks.put(key, block);
+            size += block.sizeInBytes();
+            if (previous != null) {
+                size -= previous.sizeInBytes();
+            }
+
+            final Iterator<Block> lru = blocks.values().iterator();
+            while (size > capacity) {
+                size -= lru.next().sizeInBytes();
+                lru.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void invalidate(final long table) {
+            final Iterator<Map.Entry<Key, Block>> iter = blocks.entrySet().iterator();
+            while (iter.hasNext()) {
+                final Map.Entry<Key, Block> entry = iter.next();
+                if (entry.getKey().table == table) {
+                    size -= entry.getValue().sizeInBytes();
+                    iter.remove();
+                }
+            }
+        }
+
+        synchronized long sizeInBytes() {
+            return size;
+        }
+    }
+}
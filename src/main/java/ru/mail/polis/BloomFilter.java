@@ -0,0 +1,102 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the keys of an {@link SSTable}, persisted in the table file and read in place.
+ *
+ * <p>Layout: hash function count followed by the bit set words.
+ * Bit positions are derived from a single 64-bit key hash by double hashing,
+ * so the hash is computed once per lookup however many tables are probed.
+ */
+final class BloomFilter {
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final int MAX_HASHES = 30;
+
+    private final ByteBuffer data;
+    private final int hashes;
+    private final long bits;
+
+    BloomFilter(@NotNull final ByteBuffer data) {
+        this.data = data;
+        this.hashes = data.getInt(0);
+        this.bits = (long) (data.limit() - Integer.BYTES) / Long.BYTES * Long.SIZE;
+    }
+
+    /**
+     * Hash the remaining bytes of the {@code key}.
+     */
+    static long hash(@NotNull final ByteBuffer key) {
+        long h = FNV_OFFSET;
+        for (int i = key.position(); i < key.limit(); i++) {
+            h = (h ^ (key.get(i) & 0xFF)) * FNV_PRIME;
+        }
+
+        // MurmurHash3 finalizer to spread FNV output over all the bits
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Build a serialized filter over the first {@code count} of key {@code hashes}.
+     *
+     * @param bitsPerKey filter bits per key, {@code 0} to build a filter passing everything
+     */
+    @NotNull
+    static ByteBuffer build(
+            @NotNull final long[] hashes,
+            final int count,
+            final int bitsPerKey) {
+        if (bitsPerKey == 0) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(0).flip();
+        }
+
+        final int words = (int) Math.max(1, ((long) count * bitsPerKey + Long.SIZE - 1) / Long.SIZE);
+        final long bits = (long) words * Long.SIZE;
+        final int k = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * Math.log(2))));
+        final long[] set = new long[words];
+        for (int i = 0; i < count; i++) {
+            final long h1 = hashes[i];
+            final long h2 = Long.rotateLeft(h1, 32) | 1;
+            for (int j = 0; j < k; j++) {
+                final long bit = Math.floorMod(h1 + j * h2, bits);
+                set[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        final ByteBuffer result = ByteBuffer.allocate(Integer.BYTES + words * Long.BYTES);
+        result.putInt(k);
+        for (final long word : set) {
+            result.putLong(word);
+        }
+        return result.flip();
+    }
+
+    /**
+     * Check whether the key with the {@code hash} may be in the table.
+     *
+     * @return {@code false} only if the key is definitely absent
+     */
+    boolean mightContain(final long hash) {
+        final long h2 = Long.rotateLeft(hash, 32) | 1;
+        for (int j = 0; j < hashes; j++) {
+            final long bit = Math.floorMod(hash + j * h2, bits);
+            final long word = data.getLong(Integer.BYTES + (int) (bit >>> 6) * Long.BYTES);
+            if ((word & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int sizeInBytes() {
+        return data.limit();
+    }
+}
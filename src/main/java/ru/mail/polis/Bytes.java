@@ -0,0 +1,66 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Utility methods for handling {@link ByteBuffer}s without creating views.
+ */
+final class Bytes {
+    private Bytes() {
+        // Don't instantiate
+    }
+
+    /**
+     * Compare {@code length} bytes of {@code buffer} at absolute {@code position} with the remaining bytes of
+     * {@code key} the same way {@link ByteBuffer#compareTo(ByteBuffer)} does.
+     */
+    static int compare(
+            @NotNull final ByteBuffer buffer,
+            final int position,
+            final int length,
+            @NotNull final ByteBuffer key) {
+        final int common = Math.min(length, key.remaining());
+        final int keyPosition = key.position();
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.compare(buffer.get(position + i), key.get(keyPosition + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.remaining();
+    }
+
+    /**
+     * Compare the first {@code length} bytes of {@code array} with the remaining bytes of {@code key}
+     * the same way {@link ByteBuffer#compareTo(ByteBuffer)} does.
+     */
+    static int compare(
+            @NotNull final byte[] array,
+            final int length,
+            @NotNull final ByteBuffer key) {
+        final int common = Math.min(length, key.remaining());
+        final int keyPosition = key.position();
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.compare(array[i], key.get(keyPosition + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.remaining();
+    }
+
+    /**
+     * Get a view of {@code length} bytes of {@code buffer} starting from absolute {@code position}.
+     */
+    @NotNull
+    static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int position,
+            final int length) {
+        final ByteBuffer result = buffer.duplicate();
+        result.position(position).limit(position + length);
+        return result.slice();
+    }
+}
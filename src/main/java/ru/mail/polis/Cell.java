@@ -0,0 +1,107 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Storage cell: a version of a key with either a value or a tombstone, tagged with the generation of the table
+ * it came from and the {@link CommitLog} sequence number of the write.
+ */
+final class Cell {
+    /**
+     * Orders cells by key.
+     */
+    static final Comparator<Cell> COMPARATOR = Comparator.comparing(Cell::getKey);
+
+    /**
+     * Orders cells by key, then versions of the same key from the newest to the oldest.
+     */
+    static final Comparator<Cell> VERSION_COMPARATOR =
+            COMPARATOR.thenComparing(Comparator.comparingLong(Cell::getSequence).reversed());
+
+    private final ByteBuffer key;
+    @Nullable
+    private final ByteBuffer value;
+    private final long generation;
+    private final long sequence;
+
+    private Cell(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value,
+            final long generation,
+            final long sequence) {
+        this.key = key;
+        this.value = value;
+        this.generation = generation;
+        this.sequence = sequence;
+    }
+
+    static Cell of(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long generation) {
+        return of(key, value, generation, 0L);
+    }
+
+    static Cell of(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long generation,
+            final long sequence) {
+        return new Cell(key, value, generation, sequence);
+    }
+
+    static Cell tombstone(
+            @NotNull final ByteBuffer key,
+            final long generation) {
+        return tombstone(key, generation, 0L);
+    }
+
+    static Cell tombstone(
+            @NotNull final ByteBuffer key,
+            final long generation,
+            final long sequence) {
+        return new Cell(key, null, generation, sequence);
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key;
+    }
+
+    /**
+     * Get the value or {@code null} for a tombstone.
+     */
+    @Nullable
+    ByteBuffer getValue() {
+        return value;
+    }
+
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get approximate number of bytes the cell occupies in a table.
+     */
+    long sizeInBytes() {
+        return key.remaining() + (value == null ? 0 : value.remaining());
+    }
+
+    @NotNull
+    Record toRecord() {
+        assert value != null;
+        return Record.of(key, value);
+    }
+}
@@ -0,0 +1,83 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression of {@link SSTable} data blocks.
+ *
+ * <p>Implementations must be thread-safe.
+ */
+interface Codec {
+    /**
+     * Compress the remaining bytes of {@code raw}.
+     *
+     * @return the compressed bytes, possibly not smaller than {@code raw}
+     */
+    @NotNull
+    ByteBuffer compress(@NotNull ByteBuffer raw);
+
+    /**
+     * Decompress the remaining bytes of {@code compressed} into a buffer of {@code rawSize} bytes.
+     */
+    @NotNull
+    ByteBuffer decompress(
+            @NotNull ByteBuffer compressed,
+            int rawSize) throws IOException;
+
+    /**
+     * Available codecs, the id of the one used is stored with every block.
+     */
+    enum Kind {
+        /**
+         * Blocks are stored as they are and read from the mapping without copying.
+         */
+        NONE(0, null),
+
+        /**
+         * Best ratio, slower to write and read, see {@link DeflateCodec}.
+         */
+        DEFLATE(1, new DeflateCodec()),
+
+        /**
+         * Fast with a moderate ratio, see {@link LzCodec}.
+         */
+        LZ(2, new LzCodec());
+
+        private final byte id;
+        @Nullable
+        private final Codec codec;
+
+        Kind(
+                final int id,
+                @Nullable final Codec codec) {
+            this.id = (byte) id;
+            this.codec = codec;
+        }
+
+        byte id() {
+            return id;
+        }
+
+        /**
+         * Get the codec or {@code null} for {@link #NONE}.
+         */
+        @Nullable
+        Codec codec() {
+            return codec;
+        }
+
+        @NotNull
+        static Kind of(final byte id) throws IOException {
+            for (final Kind kind : values()) {
+                if (kind.id == id) {
+                    return kind;
+                }
+            }
+            throw new IOException("Unknown codec: " + id);
+        }
+    }
+}
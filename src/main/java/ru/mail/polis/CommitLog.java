@@ -0,0 +1,398 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the {@link MemTable} mutations.
+ *
+ * <p>Concurrent writers are grouped: the first writer to find the log idle becomes the leader,
+ * writes all the queued entries with a single gathering {@link FileChannel#write(ByteBuffer[])}
+ * and forces them according to the {@link SyncPolicy}.
+ * The other writers just wait for their entries to be committed by a leader.
+ * Every entry gets a sequence number reflecting its position in the log.
+ *
+ * <p>Every entry is stored as payload size, payload CRC32 and payload:
+ * operation, key size, key bytes and for upserts value size and value bytes.
+ * A range removal is stored the same way with the range bounds in place of the key and the value.
+ * A {@link WriteBatch} is a single entry: the batch operation, the mutation count and the mutations
+ * encoded as payloads of their own, so it is either replayed in full or not at all.
+ */
+final class CommitLog implements Closeable {
+    static final String SUFFIX = ".log";
+
+    private static final Logger log = LoggerFactory.getLogger(CommitLog.class);
+
+    private static final byte UPSERT = 0;
+    private static final byte REMOVE = 1;
+    private static final byte BATCH = 2;
+    private static final byte RANGE_REMOVE = 3;
+    private static final int HEADER = 2 * Integer.BYTES;
+
+    /**
+     * When to force the written entries to disk.
+     */
+    enum SyncPolicy {
+        /**
+         * Force every batch before acknowledging its writers.
+         */
+        ALWAYS,
+        /**
+         * Force in background every {@link Config#syncIntervalMillis()}.
+         */
+        PERIODIC,
+        /**
+         * Leave it to the OS page cache.
+         */
+        OS
+    }
+
+    private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final AtomicLong sequence;
+    private final Object lock = new Object();
+    private final Queue<Pending> queue = new ArrayDeque<>();
+
+    private boolean writing;
+
+    CommitLog(
+            @NotNull final File file,
+            @NotNull final SyncPolicy syncPolicy,
+            @NotNull final AtomicLong sequence) throws IOException {
+        this.channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        this.syncPolicy = syncPolicy;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Receiver of the replayed mutations.
+     */
+    interface Handler {
+        void upsert(
+                @NotNull ByteBuffer key,
+                @NotNull ByteBuffer value) throws IOException;
+
+        void remove(@NotNull ByteBuffer key) throws IOException;
+
+        void removeRange(
+                @NotNull ByteBuffer from,
+                @NotNull ByteBuffer to) throws IOException;
+    }
+
+    @NotNull
+    static ByteBuffer upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return entry(UPSERT, key, value);
+    }
+
+    @NotNull
+    static ByteBuffer remove(@NotNull final ByteBuffer key) {
+        return entry(REMOVE, key, null);
+    }
+
+    @NotNull
+    static ByteBuffer removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        return entry(RANGE_REMOVE, from, to);
+    }
+
+    @NotNull
+    static ByteBuffer batch(@NotNull final WriteBatch batch) {
+        int payload = 1 + Integer.BYTES;
+        for (int i = 0; i < batch.size(); i++) {
+            payload += size(batch.key(i), batch.value(i));
+        }
+        final ByteBuffer result = ByteBuffer.allocate(HEADER + payload);
+        result.position(HEADER);
+        result.put(BATCH);
+        result.putInt(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.value(i);
+            put(result, value == null ? REMOVE : UPSERT, batch.key(i), value);
+        }
+        return seal(result, payload);
+    }
+
+    @NotNull
+    private static ByteBuffer entry(
+            final byte op,
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        final int payload = size(key, value);
+        final ByteBuffer result = ByteBuffer.allocate(HEADER + payload);
+        result.position(HEADER);
+        put(result, op, key, value);
+        return seal(result, payload);
+    }
+
+    private static int size(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        return 1 + Integer.BYTES + key.remaining() + (value == null ? 0 : Integer.BYTES + value.remaining());
+    }
+
+    private static void put(
+            @NotNull final ByteBuffer result,
+            final byte op,
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        result.put(op);
+        result.putInt(key.remaining());
+        result.put(key.duplicate());
+        if (value != null) {
+            result.putInt(value.remaining());
+            result.put(value.duplicate());
+        }
+    }
+
+    /**
+     * Fill in the header of the entry with the {@code payload} bytes written after it.
+     */
+    @NotNull
+    private static ByteBuffer seal(
+            @NotNull final ByteBuffer result,
+            final int payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(result.array(), HEADER, payload);
+        result.putInt(0, payload);
+        result.putInt(Integer.BYTES, (int) crc.getValue());
+        return result.rewind();
+    }
+
+    /**
+     * Durably append the {@code entry}.
+     *
+     * @return sequence number of the entry
+     */
+    long append(@NotNull final ByteBuffer entry) throws IOException {
+        return append(entry, 1);
+    }
+
+    /**
+     * Durably append the {@code entry} of {@code count} mutations, each getting a sequence number of its own.
+     *
+     * @return sequence number of the last mutation of the entry
+     * @throws InterruptedIOException if interrupted before a leader took the entry, which is then never written
+     */
+    long append(
+            @NotNull final ByteBuffer entry,
+            final int count) throws IOException {
+        final Pending pending = new Pending(entry);
+        final List<Pending> batch = new ArrayList<>();
+        boolean interrupted = false;
+        synchronized (lock) {
+            pending.sequence = sequence.addAndGet(count);
+            queue.add(pending);
+            while (writing && !pending.done) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    if (queue.remove(pending)) {
+                        // Not taken by a leader yet, so it is never written
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for commit");
+                    }
+                    // A leader is writing the entry already, it must not fail once it may become durable
+                    interrupted = true;
+                }
+            }
+            if (pending.done) {
+                restoreInterrupt(interrupted);
+                pending.rethrow();
+                return pending.sequence;
+            }
+
+            // Become the leader and commit everyone queued so far
+            writing = true;
+            batch.addAll(queue);
+            queue.clear();
+        }
+
+        IOException error = null;
+        try {
+            commit(batch);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            synchronized (lock) {
+                for (final Pending p : batch) {
+                    p.error = error;
+                    p.done = true;
+                }
+                writing = false;
+                lock.notifyAll();
+            }
+        }
+        restoreInterrupt(interrupted);
+        pending.rethrow();
+        return pending.sequence;
+    }
+
+    /**
+     * Set the interrupt flag swallowed while waiting, only after the write as it closes an interrupted channel.
+     */
+    private static void restoreInterrupt(final boolean interrupted) {
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void commit(@NotNull final List<Pending> batch) throws IOException {
+        final ByteBuffer[] entries = new ByteBuffer[batch.size()];
+        long remaining = 0;
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = batch.get(i).entry;
+            remaining += entries[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(entries);
+        }
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Force everything written so far to disk.
+     */
+    void sync() throws IOException {
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // The log has already been rotated
+            log.trace("Sync of closed log", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Stream all the complete entries of the log {@code file} to the {@code handler}.
+     *
+     * <p>Replay stops at the first torn or corrupted entry, which can only be the tail of a log
+     * interrupted by a crash.
+     */
+    static void replay(
+            @NotNull final File file,
+            @NotNull final Handler handler) throws IOException {
+        final CRC32 crc = new CRC32();
+        final long length = file.length();
+        long entries = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final byte[] payload;
+                final int checksum;
+                try {
+                    final int size = in.readInt();
+                    checksum = in.readInt();
+                    if (size < 0 || size > length) {
+                        log.warn("Corrupted entry {} in {}, skipping the tail", entries, file);
+                        break;
+                    }
+                    payload = new byte[size];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Corrupted entry {} in {}, skipping the tail", entries, file);
+                    break;
+                }
+
+                apply(ByteBuffer.wrap(payload), handler);
+                entries++;
+            }
+        }
+        log.debug("Replayed {} entries from {}", entries, file);
+    }
+
+    private static void apply(
+            @NotNull final ByteBuffer payload,
+            @NotNull final Handler handler) throws IOException {
+        final byte op = payload.get();
+        if (op == BATCH) {
+            final int count = payload.getInt();
+            for (int i = 0; i < count; i++) {
+                apply(payload, handler);
+            }
+            return;
+        }
+
+        final ByteBuffer key = slice(payload, payload.getInt());
+        switch (op) {
+            case UPSERT:
+                handler.upsert(key, slice(payload, payload.getInt()));
+                break;
+
+            case REMOVE:
+                handler.remove(key);
+                break;
+
+            case RANGE_REMOVE:
+                handler.removeRange(key, slice(payload, payload.getInt()));
+                break;
+
+            default:
+                throw new IOException("Unknown log operation: " + op);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int size) {
+        final ByteBuffer result = buffer.slice().limit(size);
+        buffer.position(buffer.position() + size);
+        return result;
+    }
+
+    private static final class Pending {
+        private final ByteBuffer entry;
+
+        private long sequence;
+        private boolean done;
+        private IOException error;
+
+        Pending(@NotNull final ByteBuffer entry) {
+            this.entry = entry;
+        }
+
+        void rethrow() throws IOException {
+            if (error != null) {
+                throw new IOException("Commit failed", error);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single compaction job: {@link SSTable}s to merge and the level to write the result to.
+ */
+final class Compaction {
+    private final List<SSTable> inputs;
+    private final int outputLevel;
+
+    Compaction(
+            @NotNull final List<SSTable> inputs,
+            final int outputLevel) {
+        final SSTable[] sorted = inputs.toArray(new SSTable[0]);
+        Arrays.sort(sorted, SSTable.NEWEST_FIRST);
+        this.inputs = List.of(sorted);
+        this.outputLevel = outputLevel;
+    }
+
+    /**
+     * Get the tables to merge from the newest to the oldest.
+     */
+    @NotNull
+    List<SSTable> inputs() {
+        return inputs;
+    }
+
+    int outputLevel() {
+        return outputLevel;
+    }
+
+    /**
+     * Get generation of the newest {@link MemTable} whose data the inputs hold.
+     */
+    long dataGeneration() {
+        long result = 0;
+        for (final SSTable table : inputs) {
+            result = Math.max(result, table.dataGeneration());
+        }
+        return result;
+    }
+
+    long inputBytes() {
+        long result = 0;
+        for (final SSTable table : inputs) {
+            result += table.sizeInBytes();
+        }
+        return result;
+    }
+
+    /**
+     * Split the key space of the inputs into up to {@code ranges} parts holding about the same number of blocks.
+     *
+     * @return sorted distinct keys, each one starting the next part
+     */
+    @NotNull
+    List<ByteBuffer> boundaries(final int ranges) {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (final SSTable table : inputs) {
+            // Block keys are a sample of the table keys weighted by size
+            for (int i = 0; i < table.blockCount(); i++) {
+                keys.add(table.blockKey(i));
+            }
+        }
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Collections.sort(keys);
+
+        final List<ByteBuffer> result = new ArrayList<>(ranges);
+        for (int i = 1; i < ranges; i++) {
+            final ByteBuffer key = keys.get((int) ((long) keys.size() * i / ranges));
+            if (result.isEmpty() ? key.compareTo(keys.get(0)) > 0 : key.compareTo(result.get(result.size() - 1)) > 0) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return inputs.size() + " tables to L" + outputLevel;
+    }
+}
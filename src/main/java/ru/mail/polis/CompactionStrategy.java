@@ -0,0 +1,79 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Decides which {@link SSTable}s to merge.
+ *
+ * <p>The tables are passed from the newest to the oldest as ordered by {@link SSTable#NEWEST_FIRST}.
+ * A {@link Compaction} must not leave a table between its inputs in that order, otherwise the result
+ * would be mistaken for newer or older data than it is.
+ *
+ * <p>Implementations need not be thread-safe, {@link MyDAO} asks them one call at a time.
+ */
+interface CompactionStrategy {
+    /**
+     * Available strategies.
+     */
+    enum Kind {
+        /**
+         * Keeps read amplification low at the cost of rewriting data more, see {@link LeveledCompaction}.
+         */
+        LEVELED {
+            @NotNull
+            @Override
+            CompactionStrategy create(@NotNull final Config config) {
+                return new LeveledCompaction(config.flushThreshold());
+            }
+        },
+
+        /**
+         * Rewrites data less at the cost of probing more tables on reads, see {@link SizeTieredCompaction}.
+         */
+        SIZE_TIERED {
+            @NotNull
+            @Override
+            CompactionStrategy create(@NotNull final Config config) {
+                return new SizeTieredCompaction(config.flushThreshold());
+            }
+        };
+
+        @NotNull
+        abstract CompactionStrategy create(@NotNull Config config);
+    }
+
+    /**
+     * Pick the most urgent compaction of the {@code tables}.
+     *
+     * @return {@code null} if the tables are fine as they are
+     */
+    @Nullable
+    Compaction pick(@NotNull List<SSTable> tables);
+
+    /**
+     * Merge all the {@code tables} for {@link DAO#compact()}.
+     *
+     * @return {@code null} if there is nothing to gain
+     */
+    @Nullable
+    Compaction full(@NotNull List<SSTable> tables);
+
+    /**
+     * Get target size in bytes of tables written by compactions.
+     */
+    long tableSize();
+
+    /**
+     * Estimate how many times every byte written is written to disk with the {@code tables} as they are,
+     * counting the commit log and the flush.
+     */
+    double writeAmplification(@NotNull List<SSTable> tables);
+
+    /**
+     * Estimate how many tables a point lookup may have to probe with the {@code tables} as they are.
+     */
+    double readAmplification(@NotNull List<SSTable> tables);
+}
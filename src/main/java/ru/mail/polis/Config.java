@@ -0,0 +1,327 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tuning parameters of {@link MyDAO}.
+ */
+final class Config {
+    /**
+     * By default flush the in-memory table when it reaches 1/8 of the heap limit.
+     */
+    static final long DEFAULT_FLUSH_THRESHOLD = DAOFactory.MAX_HEAP / 8;
+    static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+    static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+    static final long DEFAULT_BLOCK_CACHE_SIZE = DAOFactory.MAX_HEAP / 16;
+    static final int DEFAULT_BLOOM_BITS_PER_KEY = 10;
+    static final int DEFAULT_RESTART_INTERVAL = 16;
+    static final int DEFAULT_ASYNC_MAX_PENDING = 16 * 1024;
+
+    private final long flushThreshold;
+    private final CommitLog.SyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final int blockSize;
+    private final long blockCacheSize;
+    private final long rowCacheSize;
+    private final int bloomBitsPerKey;
+    private final long offHeapBudget;
+    private final CompactionStrategy.Kind compaction;
+    private final int compactionThreads;
+    private final Codec.Kind codec;
+    private final int restartInterval;
+    private final int asyncThreads;
+    private final int asyncMaxPending;
+    private final boolean asyncVirtualThreads;
+
+    private Config(@NotNull final Builder builder) {
+        this.flushThreshold = builder.flushThreshold;
+        this.syncPolicy = builder.syncPolicy;
+        this.syncIntervalMillis = builder.syncIntervalMillis;
+        this.blockSize = builder.blockSize;
+        this.blockCacheSize = builder.blockCacheSize;
+        this.rowCacheSize = builder.rowCacheSize;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.offHeapBudget = builder.offHeapBudget;
+        this.compaction = builder.compaction;
+        this.compactionThreads = builder.compactionThreads;
+        this.codec = builder.codec;
+        this.restartInterval = builder.restartInterval;
+        this.asyncThreads = builder.asyncThreads;
+        this.asyncMaxPending = builder.asyncMaxPending;
+        this.asyncVirtualThreads = builder.asyncVirtualThreads;
+    }
+
+    @NotNull
+    static Config defaults() {
+        return builder().build();
+    }
+
+    @NotNull
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get size in bytes of the in-memory table which triggers its flush to disk.
+     *
+     * <p>{@link OffHeapMemTable}s are flushed earlier if they take half of the {@link #offHeapBudget()},
+     * so that both the memtable being written and the one being flushed fit into the budget.
+     */
+    long flushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Get when the {@link CommitLog} is forced to disk.
+     */
+    @NotNull
+    CommitLog.SyncPolicy syncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Get interval between background syncs of the {@link CommitLog} for {@link CommitLog.SyncPolicy#PERIODIC}.
+     */
+    long syncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Get target size in bytes of {@link SSTable} data blocks.
+     */
+    int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Get byte budget of the {@link BlockCache}.
+     */
+    long blockCacheSize() {
+        return blockCacheSize;
+    }
+
+    /**
+     * Get byte budget of the {@link RowCache}, {@code 0} if it is disabled.
+     */
+    long rowCacheSize() {
+        return rowCacheSize;
+    }
+
+    /**
+     * Get {@link BloomFilter} bits per key, {@code 0} if filters are disabled.
+     */
+    int bloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    /**
+     * Get direct memory budget of {@link OffHeapMemTable}s, {@code 0} to keep memtables on the heap.
+     *
+     * <p>Note that direct memory is also limited by {@code -XX:MaxDirectMemorySize}, which defaults to {@code -Xmx}.
+     */
+    long offHeapBudget() {
+        return offHeapBudget;
+    }
+
+    /**
+     * Get the {@link CompactionStrategy} to merge {@link SSTable}s with.
+     */
+    @NotNull
+    CompactionStrategy.Kind compaction() {
+        return compaction;
+    }
+
+    /**
+     * Get the number of threads merging key ranges of a single compaction in parallel.
+     */
+    int compactionThreads() {
+        return compactionThreads;
+    }
+
+    /**
+     * Get the {@link Codec} to compress {@link SSTable} data blocks with.
+     */
+    @NotNull
+    Codec.Kind codec() {
+        return codec;
+    }
+
+    /**
+     * Get the number of keys between restart points of {@link Block}s, the keys in between share prefixes.
+     */
+    int restartInterval() {
+        return restartInterval;
+    }
+
+    /**
+     * Get the number of platform threads running the operations of an {@link AsyncDAO}.
+     */
+    int asyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * Get the number of operations an {@link AsyncDAO} accepts before rejecting new ones.
+     */
+    int asyncMaxPending() {
+        return asyncMaxPending;
+    }
+
+    /**
+     * Check whether an {@link AsyncDAO} runs every operation on a virtual thread of its own
+     * instead of {@link #asyncThreads()} platform threads, if the JDK supports them.
+     */
+    boolean asyncVirtualThreads() {
+        return asyncVirtualThreads;
+    }
+
+    static final class Builder {
+        private long flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+        private CommitLog.SyncPolicy syncPolicy = CommitLog.SyncPolicy.PERIODIC;
+        private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+        private int blockSize = DEFAULT_BLOCK_SIZE;
+        private long blockCacheSize = DEFAULT_BLOCK_CACHE_SIZE;
+        private long rowCacheSize;
+        private int bloomBitsPerKey = DEFAULT_BLOOM_BITS_PER_KEY;
+        private long offHeapBudget;
+        private CompactionStrategy.Kind compaction = CompactionStrategy.Kind.LEVELED;
+        private int compactionThreads = Runtime.getRuntime().availableProcessors();
+        private Codec.Kind codec = Codec.Kind.NONE;
+        private int restartInterval = DEFAULT_RESTART_INTERVAL;
+        private int asyncThreads = 2 * Runtime.getRuntime().availableProcessors();
+        private int asyncMaxPending = DEFAULT_ASYNC_MAX_PENDING;
+        private boolean asyncVirtualThreads;
+
+        private Builder() {
+            // Use Config.builder()
+        }
+
+        @NotNull
+        Builder flushThreshold(final long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive flush threshold: " + bytes);
+            }
+            this.flushThreshold = bytes;
+            return this;
+        }
+
+        @NotNull
+        Builder syncPolicy(@NotNull final CommitLog.SyncPolicy policy) {
+            this.syncPolicy = policy;
+            return this;
+        }
+
+        @NotNull
+        Builder syncIntervalMillis(final long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Non-positive sync interval: " + millis);
+            }
+            this.syncIntervalMillis = millis;
+            return this;
+        }
+
+        @NotNull
+        Builder blockSize(final int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive block size: " + bytes);
+            }
+            this.blockSize = bytes;
+            return this;
+        }
+
+        @NotNull
+        Builder blockCacheSize(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative block cache size: " + bytes);
+            }
+            this.blockCacheSize = bytes;
+            return this;
+        }
+
+        @NotNull
+        Builder rowCacheSize(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative row cache size: " + bytes);
+            }
+            this.rowCacheSize = bytes;
+            return this;
+        }
+
+        @NotNull
+        Builder bloomBitsPerKey(final int bits) {
+            if (bits < 0) {
+                throw new IllegalArgumentException("Negative bits per key: " + bits);
+            }
+            this.bloomBitsPerKey = bits;
+            return this;
+        }
+
+        @NotNull
+        Builder offHeapBudget(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative off-heap budget: " + bytes);
+            }
+            this.offHeapBudget = bytes;
+            return this;
+        }
+
+        @NotNull
+        Builder compaction(@NotNull final CompactionStrategy.Kind compaction) {
+            this.compaction = compaction;
+            return this;
+        }
+
+        @NotNull
+        Builder compactionThreads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Non-positive compaction threads: " + threads);
+            }
+            this.compactionThreads = threads;
+            return this;
+        }
+
+        @NotNull
+        Builder codec(@NotNull final Codec.Kind codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        @NotNull
+        Builder restartInterval(final int keys) {
+            if (keys <= 0) {
+                throw new IllegalArgumentException("Non-positive restart interval: " + keys);
+            }
+            this.restartInterval = keys;
+            return this;
+        }
+
+        @NotNull
+        Builder asyncThreads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Non-positive async threads: " + threads);
+            }
+            this.asyncThreads = threads;
+            return this;
+        }
+
+        @NotNull
+        Builder asyncMaxPending(final int operations) {
+            if (operations <= 0) {
+                throw new IllegalArgumentException("Non-positive async pending operations: " + operations);
+            }
+            this.asyncMaxPending = operations;
+            return this;
+        }
+
+        @NotNull
+        Builder asyncVirtualThreads(final boolean enabled) {
+            this.asyncVirtualThreads = enabled;
+            return this;
+        }
+
+        @NotNull
+        Config build() {
+            return new Config(this);
+        }
+    }
+}
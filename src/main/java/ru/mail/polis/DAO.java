@@ -22,7 +22,12 @@ import org.jetbrains.annotations.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -49,8 +54,35 @@ public interface DAO extends Closeable {
             return Iters.empty();
         }
 
-        final Record bound = new Record(to, ByteBuffer.allocate(0));
-        return Iters.until(iterator(from), bound);
+        return Iters.untilKey(iterator(from), to);
+    }
+
+    /**
+     * Get {@link Iterator} of {@link Record}s with keys less than {@code to} exclusive or of all the records
+     * if {@code to} is {@code null} in descending order of keys.
+     *
+     * <p>The default implementation buffers the whole range.
+     */
+    @NotNull
+    default Iterator<Record> descendingIterator(@Nullable ByteBuffer to) throws IOException {
+        final Deque<Record> records = new ArrayDeque<>();
+        range(ByteBuffer.allocate(0), to).forEachRemaining(records::push);
+        return records.iterator();
+    }
+
+    /**
+     * Get {@link Iterator} of {@link Record}s with keys between {@code from} inclusive and {@code to} exclusive
+     * in descending order of keys.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        if (to != null && from.compareTo(to) > 0) {
+            return Iters.empty();
+        }
+
+        return Iters.downToKey(descendingIterator(to), from);
     }
 
     /**
@@ -64,7 +96,79 @@ public interface DAO extends Closeable {
         }
 
         final Record next = iter.next();
-        if (next.getKey().equals(key)) {
+        if (next.key().equals(key)) {
+            return next.getValue();
+        } else {
+            throw new NoSuchElementException("Not found");
+        }
+    }
+
+    /**
+     * Get values of all the {@code keys} present, the absent ones are missing in the result.
+     *
+     * <p>The default implementation looks the keys up one by one.
+     */
+    @NotNull
+    default Map<ByteBuffer, ByteBuffer> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            try {
+                result.put(key, get(key));
+            } catch (NoSuchElementException e) {
+                // Absent keys are left out
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Take a {@link Snapshot} of the current state to read it consistently while the storage keeps changing.
+     */
+    @NotNull
+    Snapshot snapshot();
+
+    /**
+     * Get {@link Iterator} of {@link Record}s starting from {@code from} as of the {@code snapshot}.
+     */
+    @NotNull
+    Iterator<Record> iterator(
+            @NotNull ByteBuffer from,
+            @NotNull Snapshot snapshot) throws IOException;
+
+    /**
+     * Get {@link Iterator} of {@link Record}s with keys between {@code from} inclusive and {@code to} exclusive
+     * as of the {@code snapshot}.
+     */
+    @NotNull
+    default Iterator<Record> range(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to,
+            @NotNull Snapshot snapshot) throws IOException {
+        if (to == null) {
+            return iterator(from, snapshot);
+        }
+
+        if (from.compareTo(to) > 0) {
+            return Iters.empty();
+        }
+
+        return Iters.untilKey(iterator(from, snapshot), to);
+    }
+
+    /**
+     * Get value for the {@code key} as of the {@code snapshot} or {@link NoSuchElementException} if no value present.
+     */
+    @NotNull
+    default ByteBuffer get(
+            @NotNull ByteBuffer key,
+            @NotNull Snapshot snapshot) throws IOException, NoSuchElementException {
+        final Iterator<Record> iter = iterator(key, snapshot);
+        if (!iter.hasNext()) {
+            throw new NoSuchElementException("Not found");
+        }
+
+        final Record next = iter.next();
+        if (next.key().equals(key)) {
             return next.getValue();
         } else {
             throw new NoSuchElementException("Not found");
@@ -77,7 +181,47 @@ public interface DAO extends Closeable {
 
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Remove all the keys from {@code from} inclusive to {@code to} exclusive.
+     *
+     * <p>The default implementation removes the keys present one by one.
+     */
+    default void removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        final Deque<ByteBuffer> keys = new ArrayDeque<>();
+        range(from, to).forEachRemaining(record -> keys.add(record.getKey()));
+        for (final ByteBuffer key : keys) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Apply all the mutations of the {@code batch} in order.
+     *
+     * <p>The default implementation applies them one by one, so a failure may leave the batch applied partially.
+     */
+    default void write(@NotNull final WriteBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.value(i);
+            if (value == null) {
+                remove(batch.key(i));
+            } else {
+                upsert(batch.key(i), value);
+            }
+        }
+    }
+
+    /**
+     * Get a snapshot of the operation latencies and storage counters.
+     */
+    @NotNull
+    Stats stats();
+
+    /**
+     * Merge all the data of the storage dropping overwritten values and removed keys.
+     */
     default void compact() throws IOException {
-        // Implement me when you get to stage 3
+        // Nothing to compact by default
     }
 }
@@ -19,6 +19,7 @@ package ru.mail.polis;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Custom {@link DAO} factory.
@@ -39,7 +40,35 @@ public final class DAOFactory {
      * @return a storage instance
      */
     @NotNull
-    static DAO create(@NotNull final File data){
+    static DAO create(@NotNull final File data) throws IOException {
+        return create(data, Config.defaults());
+    }
+
+    /**
+     * Construct a {@link DAO} instance merging its tables with the {@code compaction} strategy.
+     *
+     * @param data local disk folder to persist the data to
+     * @param compaction compaction strategy
+     * @return a storage instance
+     */
+    @NotNull
+    static DAO create(
+            @NotNull final File data,
+            @NotNull final CompactionStrategy.Kind compaction) throws IOException {
+        return create(data, Config.builder().compaction(compaction).build());
+    }
+
+    /**
+     * Construct a {@link DAO} instance with custom tuning.
+     *
+     * @param data local disk folder to persist the data to
+     * @param config storage parameters
+     * @return a storage instance
+     */
+    @NotNull
+    static DAO create(
+            @NotNull final File data,
+            @NotNull final Config config) throws IOException {
         if (Runtime.getRuntime().maxMemory() > MAX_HEAP) {
             throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
         }
@@ -52,6 +81,20 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
-        return new MyDAO();
+        return new MyDAO(data, config);
+    }
+
+    /**
+     * Construct an {@link AsyncDAO} running the operations of the {@code dao}, which it closes when closed.
+     *
+     * @param dao storage to run the operations of
+     * @param config executor parameters
+     * @return a non-blocking storage interface
+     */
+    @NotNull
+    static AsyncDAO async(
+            @NotNull final DAO dao,
+            @NotNull final Config config) {
+        return new ExecutorAsyncDAO(dao, config);
     }
 }
@@ -0,0 +1,68 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link Codec} backed by raw {@link Deflater} streams.
+ *
+ * <p>Every thread keeps its own {@link Deflater} and {@link Inflater}, so blocks don't pay for native
+ * stream setup.
+ */
+final class DeflateCodec implements Codec {
+    private static final ThreadLocal<Deflater> DEFLATERS =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATERS =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    @NotNull
+    @Override
+    public ByteBuffer compress(@NotNull final ByteBuffer raw) {
+        final Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(raw.duplicate());
+        deflater.finish();
+
+        // Incompressible data grows by a few bytes per 16K stored chunk
+        ByteBuffer result = ByteBuffer.allocate(raw.remaining() + raw.remaining() / 1024 + 64);
+        while (!deflater.finished()) {
+            if (!result.hasRemaining()) {
+                final ByteBuffer grown = ByteBuffer.allocate(result.capacity() * 2);
+                grown.put(result.flip());
+                result = grown;
+            }
+            deflater.deflate(result);
+        }
+        return result.flip();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer decompress(
+            @NotNull final ByteBuffer compressed,
+            final int rawSize) throws IOException {
+        final Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(compressed.duplicate());
+
+        final ByteBuffer result = ByteBuffer.allocate(rawSize);
+        try {
+            while (result.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(result) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted block", e);
+        }
+        if (result.hasRemaining()) {
+            throw new IOException("Truncated block: " + result.position() + " of " + rawSize + " bytes");
+        }
+        return result.flip();
+    }
+}
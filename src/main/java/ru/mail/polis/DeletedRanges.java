@@ -0,0 +1,93 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Key ranges which scans found to hold nothing but tombstones.
+ *
+ * <p>A scan starting inside such a range may seek the {@link SSTable}s straight past it instead of reading
+ * the same tombstones again. {@link MemTable}s are never skipped, so a key written into the range after it
+ * was recorded is still found. A range is valid only for the set of {@link SSTable}s it was observed on,
+ * so all the ranges are dropped as soon as the set changes.
+ */
+final class DeletedRanges {
+    /**
+     * Shorter runs of tombstones are cheap to read again.
+     */
+    static final int MIN_TOMBSTONES = 32;
+
+    private static final int MAX_RANGES = 1024;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    // Guarded by this
+    private final NavigableMap<ByteBuffer, ByteBuffer> ranges = new TreeMap<>();
+    private long version;
+
+    /**
+     * Drop all the ranges, the set of tables has changed to the {@code version}.
+     */
+    synchronized void invalidate(final long version) {
+        this.version = version;
+        ranges.clear();
+    }
+
+    /**
+     * Remember that the tables of the {@code version} hold only tombstones from {@code from} inclusive
+     * to {@code to} exclusive or till the end if {@code to} is {@code null}.
+     */
+    synchronized void add(
+            final long version,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        if (version != this.version) {
+            return;
+        }
+        if (ranges.size() == MAX_RANGES) {
+            ranges.pollFirstEntry();
+        }
+        ranges.put(copy(from), to == null ? END : copy(to));
+    }
+
+    /**
+     * Get the key to seek the tables of the {@code version} to instead of {@code from}.
+     *
+     * @return {@code from} if it is not in a recorded range or {@code null} if there is nothing alive after it
+     */
+    @Nullable
+    synchronized ByteBuffer skip(
+            final long version,
+            @NotNull final ByteBuffer from) {
+        if (version != this.version) {
+            return from;
+        }
+
+        ByteBuffer result = from;
+        while (true) {
+            final Map.Entry<ByteBuffer, ByteBuffer> range = ranges.floorEntry(result);
+            if (range == null) {
+                return result;
+            }
+            final ByteBuffer end = range.getValue();
+            if (end == END) {
+                return null;
+            }
+            if (end.compareTo(result) <= 0) {
+                return result;
+            }
+            result = end;
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer key) {
+        final ByteBuffer result = ByteBuffer.allocate(key.remaining());
+        result.put(key.duplicate());
+        return result.flip();
+    }
+}
@@ -0,0 +1,298 @@
+package ru.mail.polis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link AsyncDAO} running the blocking {@link DAO} operations on an {@link ExecutorService}.
+ *
+ * <p>The executor is either a fixed pool of {@link Config#asyncThreads()} platform threads or,
+ * if {@link Config#asyncVirtualThreads()} is set and the JDK has them, a virtual thread per operation.
+ * Either way at most {@link Config#asyncMaxPending()} operations are accepted at a time,
+ * every pass of a range subscription reading the records requested counts as an operation too.
+ * Closing waits for the running operations and then ends the ranges still subscribed with an error.
+ */
+final class ExecutorAsyncDAO implements AsyncDAO {
+    private static final Logger log = LoggerFactory.getLogger(ExecutorAsyncDAO.class);
+
+    /**
+     * Records emitted by a range task before it yields the thread to other operations.
+     */
+    private static final int RANGE_CHUNK = 256;
+
+    private final DAO dao;
+    private final ExecutorService executor;
+    private final Semaphore pending;
+    private final Set<RangeSubscription> ranges = ConcurrentHashMap.newKeySet();
+
+    ExecutorAsyncDAO(
+            @NotNull final DAO dao,
+            @NotNull final Config config) {
+        this.dao = dao;
+        this.executor = executor(config);
+        this.pending = new Semaphore(config.asyncMaxPending());
+    }
+
+    @NotNull
+    private static ExecutorService executor(@NotNull final Config config) {
+        if (config.asyncVirtualThreads()) {
+            try {
+                // Available since JDK 21, looked up reflectively to keep running on older ones
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not supported, using {} platform threads", config.asyncThreads());
+            }
+        }
+        return Executors.newFixedThreadPool(
+                config.asyncThreads(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("dao-io-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Blocking {@link DAO} operation.
+     */
+    private interface Operation<T> {
+        T run() throws IOException;
+    }
+
+    @NotNull
+    private <T> CompletableFuture<T> submit(@NotNull final Operation<T> operation) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        if (!pending.tryAcquire()) {
+            result.completeExceptionally(new RejectedExecutionException("Too many pending operations"));
+            return result;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(operation.run());
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.release();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<ByteBuffer> getAsync(@NotNull final ByteBuffer key) {
+        return submit(() -> dao.get(key));
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> upsertAsync(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        return submit(() -> {
+            dao.upsert(key, value);
+            return null;
+        });
+    }
+
+    @NotNull
+    @Override
+    public CompletableFuture<Void> removeAsync(@NotNull final ByteBuffer key) {
+        return submit(() -> {
+            dao.remove(key);
+            return null;
+        });
+    }
+
+    @NotNull
+    @Override
+    public Flow.Publisher<Record> rangeAsync(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        return subscriber -> {
+            final RangeSubscription subscription = new RangeSubscription(subscriber, from, to);
+            ranges.add(subscription);
+            subscriber.onSubscribe(subscription);
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.debug("Waiting for pending operations");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for pending operations");
+        }
+
+        // No pass runs any more and new ones are rejected, so the idle ranges never read the closed DAO
+        for (final RangeSubscription range : ranges) {
+            range.fail(new ClosedChannelException());
+        }
+        dao.close();
+    }
+
+    /**
+     * Subscription reading the range on the executor as far as the subscriber has requested.
+     *
+     * <p>At most one drain task runs at a time: {@link #request} schedules one only if none is running
+     * and otherwise makes the running one take another pass.
+     */
+    private final class RangeSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Record> subscriber;
+        private final ByteBuffer from;
+        @Nullable
+        private final ByteBuffer to;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        // Signalled by the drain task, so that it never runs concurrently with onNext
+        @Nullable
+        private volatile Exception error;
+
+        // Accessed by the drain task only
+        private Iterator<Record> records;
+        private volatile boolean done;
+
+        RangeSubscription(
+                @NotNull final Flow.Subscriber<? super Record> subscriber,
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            this.subscriber = subscriber;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Non-positive request: " + n);
+                schedule();
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            ranges.remove(this);
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() == 0) {
+                execute();
+            }
+        }
+
+        /**
+         * Run a drain pass, must be called only while no other pass is running.
+         */
+        private void execute() {
+            if (pending.tryAcquire()) {
+                dispatch();
+            } else {
+                fail(new RejectedExecutionException("Too many pending operations"));
+            }
+        }
+
+        /**
+         * Run a drain pass holding a pending permit, released when the stream goes idle or ends.
+         */
+        private void dispatch() {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                pending.release();
+                fail(e);
+            }
+        }
+
+        /**
+         * Emit the records requested, releasing the permit before the stream goes idle or ends.
+         */
+        private void drain() {
+            int missed = 1;
+            do {
+                final Exception failure = error;
+                if (failure != null) {
+                    pending.release();
+                    fail(failure);
+                    return;
+                }
+                try {
+                    if (records == null && !done) {
+                        records = dao.range(from, to);
+                    }
+                    long emitted = 0;
+                    while (!done && emitted < RANGE_CHUNK && demand.get() > 0 && records.hasNext()) {
+                        subscriber.onNext(records.next());
+                        demand.decrementAndGet();
+                        emitted++;
+                    }
+                    if (!done && !records.hasNext()) {
+                        pending.release();
+                        complete();
+                        return;
+                    }
+                    if (!done && emitted == RANGE_CHUNK && demand.get() > 0) {
+                        // Let other operations run, then continue holding the permit
+                        dispatch();
+                        return;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    pending.release();
+                    fail(e);
+                    return;
+                }
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+            pending.release();
+        }
+
+        // Synchronized, as close may end the range while a request fails to schedule a pass
+        private synchronized void complete() {
+            if (!done) {
+                done = true;
+                ranges.remove(this);
+                subscriber.onComplete();
+            }
+        }
+
+        private synchronized void fail(@NotNull final Exception e) {
+            if (!done) {
+                done = true;
+                ranges.remove(this);
+                subscriber.onError(e);
+            }
+        }
+    }
+}
@@ -20,9 +20,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -59,6 +61,15 @@ final class Files {
                 });
     }
 
+    /**
+     * Force the entries of the {@code directory} to disk, so that files renamed into it stay there after a crash.
+     */
+    static void syncDirectory(@NotNull final File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
     static long directorySize(@NotNull final File path) throws IOException {
         final AtomicLong result = new AtomicLong(0L);
         java.nio.file.Files.walkFileTree(
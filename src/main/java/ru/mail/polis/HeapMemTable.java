@@ -0,0 +1,135 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MemTable} keeping cells on the heap.
+ *
+ * <p>Cell versions live in a lock-free skip list, so writers never block each other and iterators are weakly
+ * consistent.
+ */
+final class HeapMemTable implements MemTable {
+    private final NavigableSet<Cell> cells = new ConcurrentSkipListSet<>(Cell.VERSION_COMPARATOR);
+    private final Queue<RangeTombstone> rangeTombstones = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    private final long generation;
+    private final long limit;
+
+    /**
+     * Create a table which is full once it holds {@code limit} bytes.
+     */
+    HeapMemTable(
+            final long generation,
+            final long limit) {
+        this.generation = generation;
+        this.limit = limit;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> versions(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final Cell first = probe(from);
+        if (to == null) {
+            return cells.tailSet(first).iterator();
+        }
+        if (from.compareTo(to) >= 0) {
+            return Iters.empty();
+        }
+        return cells.subSet(first, probe(to)).iterator();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingVersions(@Nullable final ByteBuffer to) {
+        if (to == null) {
+            return cells.descendingIterator();
+        }
+        return cells.headSet(probe(to), false).descendingIterator();
+    }
+
+    /**
+     * Get a cell ordered before all the versions of the {@code key}.
+     */
+    @NotNull
+    private Cell probe(@NotNull final ByteBuffer key) {
+        return Cell.tombstone(key, generation, Long.MAX_VALUE);
+    }
+
+    @Nullable
+    @Override
+    public Cell get(
+            @NotNull final ByteBuffer key,
+            final long snapshot) {
+        final Cell cell = cells.ceiling(Cell.tombstone(key, generation, snapshot));
+        return cell == null || !cell.getKey().equals(key) ? null : cell;
+    }
+
+    @NotNull
+    @Override
+    public Collection<RangeTombstone> rangeTombstones() {
+        return rangeTombstones;
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return cells.isEmpty() && rangeTombstones.isEmpty();
+    }
+
+    @Override
+    public boolean isFull() {
+        return sizeInBytes.get() >= limit;
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long sequence) {
+        put(Cell.of(key, value, generation, sequence));
+    }
+
+    @Override
+    public void remove(
+            @NotNull final ByteBuffer key,
+            final long sequence) {
+        put(Cell.tombstone(key, generation, sequence));
+    }
+
+    @Override
+    public void removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence) {
+        final RangeTombstone tombstone = new RangeTombstone(from, to, sequence);
+        rangeTombstones.add(tombstone);
+        sizeInBytes.addAndGet(tombstone.sizeInBytes());
+    }
+
+    private void put(@NotNull final Cell cell) {
+        if (cells.add(cell)) {
+            sizeInBytes.addAndGet(cell.sizeInBytes());
+        }
+    }
+}
@@ -3,7 +3,11 @@ package ru.mail.polis;
 import com.google.common.base.Functions;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.function.Function;
 
@@ -38,7 +42,56 @@ public final class Iters {
     public static <E extends Comparable<E>> Iterator<E> until(
             @NotNull final Iterator<E> iter,
             @NotNull final E until) {
-        return new UntilIterator<>(iter, until);
+        return new UntilIterator<>(iter, until, Comparator.naturalOrder(), false);
+    }
+
+    /**
+     * Get elements of sorted {@code iter} less than {@code until} according to {@code comparator}.
+     */
+    public static <E> Iterator<E> until(
+            @NotNull final Iterator<E> iter,
+            @NotNull final E until,
+            @NotNull final Comparator<? super E> comparator) {
+        return new UntilIterator<>(iter, until, comparator, false);
+    }
+
+    /**
+     * Get {@link Record}s of {@code iter} sorted by key with keys less than {@code to}.
+     *
+     * <p>Unlike {@link #until(Iterator, Comparable)} needs no sentinel {@link Record} for the bound.
+     */
+    public static Iterator<Record> untilKey(
+            @NotNull final Iterator<Record> iter,
+            @NotNull final ByteBuffer to) {
+        return new KeyBoundIterator(iter, to, false);
+    }
+
+    /**
+     * Get {@link Record}s of {@code iter} sorted by key in descending order with keys not less than {@code from}.
+     */
+    public static Iterator<Record> downToKey(
+            @NotNull final Iterator<Record> iter,
+            @NotNull final ByteBuffer from) {
+        return new KeyBoundIterator(iter, from, true);
+    }
+
+    /**
+     * Get elements of {@code iter} sorted in descending order not less than {@code downTo}.
+     */
+    public static <E extends Comparable<E>> Iterator<E> downTo(
+            @NotNull final Iterator<E> iter,
+            @NotNull final E downTo) {
+        return downTo(iter, downTo, Comparator.naturalOrder());
+    }
+
+    /**
+     * Get elements of {@code iter} sorted in descending order of {@code comparator} not less than {@code downTo}.
+     */
+    public static <E> Iterator<E> downTo(
+            @NotNull final Iterator<E> iter,
+            @NotNull final E downTo,
+            @NotNull final Comparator<? super E> comparator) {
+        return new UntilIterator<>(iter, downTo, Collections.reverseOrder(comparator), true);
     }
 
     public static <E> Iterator<E> collapseEquals(
@@ -51,31 +104,121 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
-    private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
+    /**
+     * Merge sorted {@code sources} into a single sorted {@link Iterator} without duplicates.
+     *
+     * <p>Of the elements equal according to {@code comparator} only the one from the source
+     * with the lowest index is emitted, so pass the sources from the newest to the oldest.
+     * Every consumed element costs a single walk up the loser tree, i.e. about {@code log2(sources)} comparisons.
+     * Sources must not contain {@code null}s.
+     */
+    public static <E> Iterator<E> merge(
+            @NotNull final List<? extends Iterator<? extends E>> sources,
+            @NotNull final Comparator<? super E> comparator) {
+        if (sources.isEmpty()) {
+            return empty();
+        }
+        return new MergingIterator<>(sources, comparator);
+    }
+
+    /**
+     * Merge {@code sources} sorted in descending order of {@code comparator} into a single descending
+     * {@link Iterator} without duplicates, preferring the source with the lowest index as {@link #merge} does.
+     */
+    public static <E> Iterator<E> mergeDescending(
+            @NotNull final List<? extends Iterator<? extends E>> sources,
+            @NotNull final Comparator<? super E> comparator) {
+        return merge(sources, Collections.reverseOrder(comparator));
+    }
+
+    private static class UntilIterator<E> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
+        private final Comparator<? super E> comparator;
+        private final boolean inclusive;
 
+        // Pulled lazily, so that creating the iterator reads nothing
         private E next;
+        private boolean pulled;
 
         UntilIterator(
                 @NotNull final Iterator<E> iter,
-                @NotNull final E until) {
+                @NotNull final E until,
+                @NotNull final Comparator<? super E> comparator,
+                final boolean inclusive) {
             this.iter = iter;
             this.until = until;
-            this.next = iter.hasNext() ? iter.next() : null;
+            this.comparator = comparator;
+            this.inclusive = inclusive;
         }
 
         @Override
         public boolean hasNext() {
-            return next != null && next.compareTo(until) < 0;
+            if (!pulled) {
+                next = iter.hasNext() ? iter.next() : null;
+                pulled = true;
+            }
+            if (next == null) {
+                return false;
+            }
+
+            final int cmp = comparator.compare(next, until);
+            return cmp < 0 || inclusive && cmp == 0;
         }
 
         @Override
         public E next() {
-            assert hasNext();
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
 
-            final E result = this.next;
-            this.next = iter.hasNext() ? iter.next() : null;
+            pulled = false;
+            return next;
+        }
+    }
+
+    /**
+     * Compares raw keys of {@link Record}s with the bound.
+     */
+    private static final class KeyBoundIterator implements Iterator<Record> {
+        private final Iterator<Record> iter;
+        private final ByteBuffer bound;
+        private final boolean descending;
+
+        private Record next;
+        private boolean done;
+
+        KeyBoundIterator(
+                @NotNull final Iterator<Record> iter,
+                @NotNull final ByteBuffer bound,
+                final boolean descending) {
+            this.iter = iter;
+            this.bound = bound;
+            this.descending = descending;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done && iter.hasNext()) {
+                final Record candidate = iter.next();
+                final int cmp = candidate.key().compareTo(bound);
+                if (descending ? cmp >= 0 : cmp < 0) {
+                    next = candidate;
+                } else {
+                    done = true;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+
+            final Record result = next;
+            next = null;
             return result;
         }
     }
@@ -85,6 +228,7 @@ public final class Iters {
         private final Function<E, ?> keyExtractor;
 
         private E next;
+        private Object nextKey;
 
         CollapseEqualsIterator(
                 @NotNull final Iterator<E> iter,
@@ -92,6 +236,7 @@ public final class Iters {
             this.iter = iter;
             this.keyExtractor = keyExtractor;
             this.next = iter.hasNext() ? iter.next() : null;
+            this.nextKey = next == null ? null : keyExtractor.apply(next);
         }
 
         CollapseEqualsIterator(@NotNull final Iterator<E> iter) {
@@ -108,14 +253,17 @@ public final class Iters {
             assert hasNext();
 
             final E result = next;
+            final Object resultKey = nextKey;
 
             // Advance to the next distinct key
             this.next = null;
+            this.nextKey = null;
             while (iter.hasNext()) {
-                final E key = iter.next();
-                if (!keyExtractor.apply(key)
-                        .equals(keyExtractor.apply(result))) {
-                    this.next = key;
+                final E candidate = iter.next();
+                final Object candidateKey = keyExtractor.apply(candidate);
+                if (!candidateKey.equals(resultKey)) {
+                    this.next = candidate;
+                    this.nextKey = candidateKey;
                     break;
                 }
             }
@@ -124,4 +272,107 @@ public final class Iters {
         }
     }
 
+    /**
+     * K-way merge over a loser tree.
+     *
+     * <p>Leaves {@code k..2k-1} are the source heads, internal node {@code i} keeps the loser of the match
+     * between its children and node {@code 0} keeps the overall winner.
+     * Exhausted sources lose to everyone, equal heads are won by the source with the lower index.
+     */
+    private static class MergingIterator<E> implements Iterator<E> {
+        private final Iterator<? extends E>[] sources;
+        private final Object[] heads;
+        private final int[] tree;
+        private final Comparator<? super E> comparator;
+
+        @SuppressWarnings("unchecked")
+        MergingIterator(
+                @NotNull final List<? extends Iterator<? extends E>> sources,
+                @NotNull final Comparator<? super E> comparator) {
+            this.sources = (Iterator<? extends E>[]) sources.toArray(new Iterator<?>[0]);
+            this.heads = new Object[this.sources.length];
+            this.tree = new int[this.sources.length];
+            this.comparator = comparator;
+            for (int i = 0; i < heads.length; i++) {
+                heads[i] = this.sources[i].hasNext() ? this.sources[i].next() : null;
+            }
+            tree[0] = heads.length == 1 ? 0 : build(1);
+        }
+
+        /**
+         * Play all the matches in the subtree of the {@code node}.
+         *
+         * @return the subtree winner
+         */
+        private int build(final int node) {
+            if (node >= heads.length) {
+                return node - heads.length;
+            }
+
+            final int left = build(2 * node);
+            final int right = build(2 * node + 1);
+            if (beats(left, right)) {
+                tree[node] = right;
+                return left;
+            } else {
+                tree[node] = left;
+                return right;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean beats(
+                final int challenger,
+                final int defender) {
+            if (heads[challenger] == null) {
+                return false;
+            }
+            if (heads[defender] == null) {
+                return true;
+            }
+
+            final int cmp = comparator.compare((E) heads[challenger], (E) heads[defender]);
+            return cmp < 0 || cmp == 0 && challenger < defender;
+        }
+
+        /**
+         * Replace the head of the winning source and replay its path to the root.
+         */
+        private void advance() {
+            int winner = tree[0];
+            final Iterator<? extends E> source = sources[winner];
+            heads[winner] = source.hasNext() ? source.next() : null;
+            for (int node = (winner + heads.length) / 2; node > 0; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    final int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return heads[tree[0]] != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted merge");
+            }
+
+            final E result = (E) heads[tree[0]];
+            advance();
+
+            // Drop the same element from older sources
+            while (hasNext() && comparator.compare((E) heads[tree[0]], result) == 0) {
+                advance();
+            }
+            return result;
+        }
+    }
+
 }
@@ -0,0 +1,97 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ *
+ * <p>Buckets are log-linear: every power of two is split into {@link #SUB_BUCKETS} equal buckets,
+ * so a percentile is off by at most 1/{@link #SUB_BUCKETS} of its value.
+ * Every bucket is a {@link LongAdder}, so concurrent recorders update striped cells instead of sharing a counter.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        counts[index(value)].increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Get the greatest value falling into the bucket.
+     */
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long lower = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Get a snapshot of the histogram, concurrent records may be partially seen.
+     */
+    @NotNull
+    LatencyStats snapshot() {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+
+        final long maxValue = max.get();
+        return new LatencyStats(
+                count,
+                count == 0 ? 0L : total.sum() / count,
+                percentile(snapshot, count, 0.5, maxValue),
+                percentile(snapshot, count, 0.9, maxValue),
+                percentile(snapshot, count, 0.99, maxValue),
+                percentile(snapshot, count, 0.999, maxValue),
+                maxValue);
+    }
+
+    private static long percentile(
+            @NotNull final long[] counts,
+            final long count,
+            final double quantile,
+            final long max) {
+        final long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return 0L;
+    }
+}
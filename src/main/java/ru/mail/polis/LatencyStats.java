@@ -0,0 +1,64 @@
+package ru.mail.polis;
+
+/**
+ * Snapshot of operation latencies in nanoseconds.
+ */
+public final class LatencyStats {
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    LatencyStats(
+            final long count,
+            final long mean,
+            final long p50,
+            final long p90,
+            final long p99,
+            final long p999,
+            final long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return mean;
+    }
+
+    public long getP50Nanos() {
+        return p50;
+    }
+
+    public long getP90Nanos() {
+        return p90;
+    }
+
+    public long getP99Nanos() {
+        return p99;
+    }
+
+    public long getP999Nanos() {
+        return p999;
+    }
+
+    public long getMaxNanos() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + mean + "ns p50=" + p50 + "ns p99=" + p99 + "ns max=" + max + "ns";
+    }
+}
@@ -0,0 +1,218 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link CompactionStrategy} keeping the {@link SSTable}s in levels.
+ *
+ * <p>Level 0 holds flushed {@link MemTable}s which may overlap each other. Each deeper level consists of
+ * non-overlapping tables of about {@link #tableSize()} bytes and is {@link #MULTIPLIER} times larger
+ * than the level above it, so a key is looked up in at most one table per level.
+ *
+ * <p>Every level gets a score: the number of level 0 tables relative to {@link #L0_TRIGGER} or the level size
+ * relative to its limit. The level with the highest score of at least {@code 1} is pushed one level down:
+ * all of level 0 or the next table of a deeper level in round-robin key order, together with the overlapping tables
+ * of the level below.
+ *
+ * <p>Not thread-safe.
+ */
+final class LeveledCompaction implements CompactionStrategy {
+    static final int L0_TRIGGER = 4;
+    static final int MULTIPLIER = 10;
+    static final int MAX_LEVEL = 7;
+
+    // Empty tables go first
+    private static final Comparator<SSTable> BY_FIRST_KEY =
+            Comparator.comparing(SSTable::firstKey, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final long tableSize;
+    // Last key compacted on each level
+    private final ByteBuffer[] cursors = new ByteBuffer[MAX_LEVEL];
+
+    LeveledCompaction(final long tableSize) {
+        this.tableSize = tableSize;
+    }
+
+    @Override
+    public long tableSize() {
+        return tableSize;
+    }
+
+    /**
+     * Get size limit in bytes of the {@code level} deeper than {@code 0}.
+     */
+    long maxBytes(final int level) {
+        long result = tableSize;
+        for (int i = 0; i < level; i++) {
+            result *= MULTIPLIER;
+        }
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public Compaction pick(@NotNull final List<SSTable> tables) {
+        final List<List<SSTable>> levels = levels(tables);
+        int level = -1;
+        double best = 1.0;
+        for (int i = 0; i < levels.size() && i < MAX_LEVEL; i++) {
+            final double score = score(levels.get(i), i);
+            if (score >= best) {
+                best = score;
+                level = i;
+            }
+        }
+        if (level < 0) {
+            return null;
+        }
+
+        final List<SSTable> inputs = new ArrayList<>();
+        if (level == 0) {
+            inputs.addAll(levels.get(0));
+        } else {
+            inputs.add(next(levels.get(level), level));
+        }
+        final ByteBuffer from = firstKey(inputs);
+        final ByteBuffer to = lastKey(inputs);
+        if (from != null && to != null && level + 1 < levels.size()) {
+            for (final SSTable table : levels.get(level + 1)) {
+                if (table.overlaps(from, to)) {
+                    inputs.add(table);
+                }
+            }
+        }
+        return new Compaction(inputs, level + 1);
+    }
+
+    /**
+     * Merge all the {@code tables} into the deepest level.
+     */
+    @Nullable
+    @Override
+    public Compaction full(@NotNull final List<SSTable> tables) {
+        if (tables.isEmpty() || tables.size() == 1
+                && tables.get(0).tombstoneCount() == 0
+                && tables.get(0).rangeTombstones().isEmpty()) {
+            return null;
+        }
+
+        int level = 1;
+        for (final SSTable table : tables) {
+            level = Math.max(level, table.level());
+        }
+        return new Compaction(tables, level);
+    }
+
+    /**
+     * Every byte is written to the commit log and flushed, then pushed through the levels. Pushing a table
+     * one level down rewrites up to {@link #MULTIPLIER} overlapping tables, half of that on average.
+     */
+    @Override
+    public double writeAmplification(@NotNull final List<SSTable> tables) {
+        final int deeper = deeperLevels(levels(tables));
+        return 2 + (deeper == 0 ? 0 : 1 + (deeper - 1) * (MULTIPLIER + 1) / 2.0);
+    }
+
+    /**
+     * Every level 0 table and at most one table of each deeper level.
+     */
+    @Override
+    public double readAmplification(@NotNull final List<SSTable> tables) {
+        final List<List<SSTable>> levels = levels(tables);
+        return levels.isEmpty() ? 0 : levels.get(0).size() + deeperLevels(levels);
+    }
+
+    private static int deeperLevels(@NotNull final List<List<SSTable>> levels) {
+        int result = 0;
+        for (int i = 1; i < levels.size(); i++) {
+            if (!levels.get(i).isEmpty()) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private double score(
+            @NotNull final List<SSTable> level,
+            final int i) {
+        if (i == 0) {
+            return (double) level.size() / L0_TRIGGER;
+        }
+
+        long bytes = 0;
+        for (final SSTable table : level) {
+            bytes += table.sizeInBytes();
+        }
+        return (double) bytes / maxBytes(i);
+    }
+
+    @NotNull
+    private SSTable next(
+            @NotNull final List<SSTable> level,
+            final int i) {
+        SSTable result = null;
+        final ByteBuffer cursor = cursors[i];
+        if (cursor != null) {
+            for (final SSTable table : level) {
+                if (table.firstKey() != null && table.firstKey().compareTo(cursor) > 0) {
+                    result = table;
+                    break;
+                }
+            }
+        }
+        if (result == null) {
+            // Wrap around
+            result = level.get(0);
+        }
+        cursors[i] = result.lastKey();
+        return result;
+    }
+
+    /**
+     * Split the {@code tables} by level, deeper levels are sorted by the first key.
+     */
+    @NotNull
+    static List<List<SSTable>> levels(@NotNull final List<SSTable> tables) {
+        final List<List<SSTable>> result = new ArrayList<>();
+        for (final SSTable table : tables) {
+            while (result.size() <= table.level()) {
+                result.add(new ArrayList<>());
+            }
+            result.get(table.level()).add(table);
+        }
+        for (int i = 1; i < result.size(); i++) {
+            result.get(i).sort(BY_FIRST_KEY);
+        }
+        return result;
+    }
+
+    @Nullable
+    static ByteBuffer firstKey(@NotNull final List<SSTable> tables) {
+        ByteBuffer result = null;
+        for (final SSTable table : tables) {
+            final ByteBuffer key = table.firstKey();
+            if (key != null && (result == null || key.compareTo(result) < 0)) {
+                result = key;
+            }
+        }
+        return result;
+    }
+
+    @Nullable
+    static ByteBuffer lastKey(@NotNull final List<SSTable> tables) {
+        ByteBuffer result = null;
+        for (final SSTable table : tables) {
+            final ByteBuffer key = table.lastKey();
+            if (key != null && (result == null || key.compareTo(result) > 0)) {
+                result = key;
+            }
+        }
+        return result;
+    }
+}
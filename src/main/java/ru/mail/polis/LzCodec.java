@@ -0,0 +1,161 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fast byte-oriented LZ77 {@link Codec} in the spirit of LZ4.
+ *
+ * <p>The stream is a sequence of tokens. The high nibble of a token is the number of literals following it,
+ * the low nibble is the match length minus {@link #MIN_MATCH}; nibbles equal to {@code 15} are continued by bytes
+ * added to them up to and including the first one less than {@code 255}. The literals are followed by
+ * a 2-byte little-endian offset back to the match. The last token has no match, it ends the stream.
+ *
+ * <p>Matches are found through a single hash table of recent 4-byte sequences, trading ratio for speed.
+ */
+final class LzCodec implements Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    private static final int NIBBLE = 15;
+
+    @NotNull
+    @Override
+    public ByteBuffer compress(@NotNull final ByteBuffer raw) {
+        final byte[] src = bytes(raw);
+        final int length = src.length;
+        final byte[] dst = new byte[length + length / 255 + 16];
+        // Positions plus one, zero means none
+        final int[] table = new int[1 << HASH_BITS];
+
+        int out = 0;
+        int anchor = 0;
+        int i = 0;
+        while (i <= length - MIN_MATCH) {
+            final int sequence = getInt(src, i);
+            final int hash = (sequence * 0x9E3779B1) >>> (Integer.SIZE - HASH_BITS);
+            final int candidate = table[hash] - 1;
+            table[hash] = i + 1;
+            if (candidate < 0 || i - candidate > MAX_OFFSET || getInt(src, candidate) != sequence) {
+                i++;
+                continue;
+            }
+
+            int match = MIN_MATCH;
+            while (i + match < length && src[candidate + match] == src[i + match]) {
+                match++;
+            }
+
+            final int literals = i - anchor;
+            final int token = out++;
+            dst[token] = (byte) (Math.min(literals, NIBBLE) << 4 | Math.min(match - MIN_MATCH, NIBBLE));
+            out = putLength(dst, out, literals);
+            System.arraycopy(src, anchor, dst, out, literals);
+            out += literals;
+            final int offset = i - candidate;
+            dst[out++] = (byte) offset;
+            dst[out++] = (byte) (offset >>> 8);
+            out = putLength(dst, out, match - MIN_MATCH);
+
+            i += match;
+            anchor = i;
+        }
+
+        final int literals = length - anchor;
+        dst[out++] = (byte) (Math.min(literals, NIBBLE) << 4);
+        out = putLength(dst, out, literals);
+        System.arraycopy(src, anchor, dst, out, literals);
+        out += literals;
+        return ByteBuffer.wrap(dst, 0, out);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer decompress(
+            @NotNull final ByteBuffer compressed,
+            final int rawSize) throws IOException {
+        final byte[] src = bytes(compressed);
+        final byte[] dst = new byte[rawSize];
+        int in = 0;
+        int out = 0;
+        try {
+            while (true) {
+                final int token = src[in++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == NIBBLE) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+                if (in == src.length) {
+                    break;
+                }
+
+                final int offset = (src[in++] & 0xFF) | (src[in++] & 0xFF) << 8;
+                int match = token & NIBBLE;
+                if (match == NIBBLE) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        match += b;
+                    } while (b == 255);
+                }
+                match += MIN_MATCH;
+                final int from = out - offset;
+                if (offset == 0 || from < 0) {
+                    throw new IOException("Corrupted block: bad offset " + offset);
+                }
+                // Byte by byte, the match may overlap the output
+                for (int j = 0; j < match; j++) {
+                    dst[out++] = dst[from + j];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted block", e);
+        }
+        if (out != rawSize) {
+            throw new IOException("Truncated block: " + out + " of " + rawSize + " bytes");
+        }
+        return ByteBuffer.wrap(dst);
+    }
+
+    private static int putLength(
+            @NotNull final byte[] dst,
+            final int position,
+            final int length) {
+        int out = position;
+        if (length >= NIBBLE) {
+            int rest = length - NIBBLE;
+            while (rest >= 255) {
+                dst[out++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[out++] = (byte) rest;
+        }
+        return out;
+    }
+
+    private static int getInt(
+            @NotNull final byte[] src,
+            final int i) {
+        return (src[i] & 0xFF)
+                | (src[i + 1] & 0xFF) << 8
+                | (src[i + 2] & 0xFF) << 16
+                | (src[i + 3] & 0xFF) << 24;
+    }
+
+    @NotNull
+    private static byte[] bytes(@NotNull final ByteBuffer buffer) {
+        final byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+}
@@ -0,0 +1,334 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Log of the edits of the live {@link SSTable} set: the tables added by every flush or compaction
+ * and the tables they replaced.
+ *
+ * <p>Every edit is stored as payload size, payload CRC32 and payload: added table count, the added tables,
+ * removed table count and the removed table generations. A table is stored as its generation, level,
+ * data generation, greatest sequence number and its first and last keys, each key as size and bytes.
+ *
+ * <p>An edit is forced to disk before the tables it removes are deleted, so the tables on disk missing
+ * in the manifest are leftovers of an interrupted flush or compaction.
+ * The log is rewritten as a single edit with all the live tables on open and once it grows long.
+ */
+final class Manifest implements Closeable {
+    static final String FILE = "MANIFEST";
+
+    private static final Logger log = LoggerFactory.getLogger(Manifest.class);
+
+    private static final String TEMP = FILE + ".tmp";
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int MAX_EDITS = 1024;
+
+    private final File data;
+    private final boolean existed;
+
+    // Guarded by this
+    private NavigableMap<Long, Entry> live;
+    private FileChannel channel;
+    private int edits;
+
+    private Manifest(
+            @NotNull final File data,
+            final boolean existed,
+            @NotNull final NavigableMap<Long, Entry> live) {
+        this.data = data;
+        this.existed = existed;
+        this.live = live;
+    }
+
+    /**
+     * Read the manifest of the {@code data} directory, an absent one is treated as empty.
+     */
+    @NotNull
+    static Manifest open(@NotNull final File data) throws IOException {
+        final File file = new File(data, FILE);
+        final NavigableMap<Long, Entry> live = new TreeMap<>();
+        final boolean existed = file.exists();
+        if (existed) {
+            replay(file, live);
+        }
+        return new Manifest(data, existed, live);
+    }
+
+    private static void replay(
+            @NotNull final File file,
+            @NotNull final Map<Long, Entry> live) throws IOException {
+        final CRC32 crc = new CRC32();
+        final long length = file.length();
+        long edits = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final byte[] payload;
+                final int checksum;
+                try {
+                    final int size = in.readInt();
+                    checksum = in.readInt();
+                    if (size < 0 || size > length) {
+                        log.warn("Corrupted edit {} in {}, skipping the tail", edits, file);
+                        break;
+                    }
+                    payload = new byte[size];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Corrupted edit {} in {}, skipping the tail", edits, file);
+                    break;
+                }
+
+                final ByteBuffer edit = ByteBuffer.wrap(payload);
+                final int added = edit.getInt();
+                for (int i = 0; i < added; i++) {
+                    final Entry entry = Entry.read(edit);
+                    live.put(entry.generation, entry);
+                }
+                final int removed = edit.getInt();
+                for (int i = 0; i < removed; i++) {
+                    live.remove(edit.getLong());
+                }
+                edits++;
+            }
+        }
+        log.debug("Replayed {} edits from {}", edits, file);
+    }
+
+    /**
+     * Check whether the manifest was read from disk rather than created empty.
+     */
+    boolean existed() {
+        return existed;
+    }
+
+    /**
+     * Get the live tables by generation.
+     */
+    @NotNull
+    synchronized NavigableMap<Long, Entry> live() {
+        return new TreeMap<>(live);
+    }
+
+    /**
+     * Durably record that the {@code added} tables replace the {@code removed} ones.
+     * The live tables stay as they were if that fails.
+     */
+    synchronized void apply(
+            @NotNull final Collection<SSTable> removed,
+            @NotNull final Collection<SSTable> added) throws IOException {
+        final NavigableMap<Long, Entry> next = new TreeMap<>(live);
+        for (final SSTable table : added) {
+            next.put(table.generation(), Entry.of(table));
+        }
+        for (final SSTable table : removed) {
+            next.remove(table.generation());
+        }
+
+        if (channel == null || edits >= MAX_EDITS) {
+            rewrite(next);
+            return;
+        }
+        final List<Entry> entries = added.stream().map(Entry::of).collect(Collectors.toList());
+        try {
+            write(channel, entries, removed.stream().mapToLong(SSTable::generation).toArray());
+            channel.force(false);
+        } catch (IOException e) {
+            // Don't append past a torn edit, the next one rewrites the log
+            channel.close();
+            channel = null;
+            throw e;
+        }
+        live = next;
+        edits++;
+    }
+
+    /**
+     * Replace the log with a single edit adding all the live tables.
+     */
+    synchronized void rewrite() throws IOException {
+        rewrite(live);
+    }
+
+    /**
+     * Replace the log with a single edit adding the {@code next} tables and make them the live ones.
+     */
+    private void rewrite(@NotNull final NavigableMap<Long, Entry> next) throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+
+        final File temp = new File(data, TEMP);
+        try (FileChannel out = FileChannel.open(
+                temp.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            write(out, next.values(), new long[0]);
+            out.force(false);
+        }
+        final File file = new File(data, FILE);
+        java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.syncDirectory(data);
+        live = next;
+        edits = 0;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void write(
+            @NotNull final FileChannel channel,
+            @NotNull final Collection<Entry> added,
+            @NotNull final long[] removed) throws IOException {
+        int size = 2 * Integer.BYTES + removed.length * Long.BYTES;
+        for (final Entry entry : added) {
+            size += entry.size();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER + size);
+        buffer.position(HEADER);
+        buffer.putInt(added.size());
+        for (final Entry entry : added) {
+            entry.write(buffer);
+        }
+        buffer.putInt(removed.length);
+        for (final long generation : removed) {
+            buffer.putLong(generation);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER, size);
+        buffer.putInt(0, size);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Metadata of a live {@link SSTable} as recorded in the manifest.
+     */
+    static final class Entry {
+        private static final int FIXED = 3 * Long.BYTES + 3 * Integer.BYTES;
+
+        final long generation;
+        final int level;
+        final long dataGeneration;
+        final long maxSequence;
+        @Nullable
+        final ByteBuffer firstKey;
+        @Nullable
+        final ByteBuffer lastKey;
+
+        private Entry(
+                final long generation,
+                final int level,
+                final long dataGeneration,
+                final long maxSequence,
+                @Nullable final ByteBuffer firstKey,
+                @Nullable final ByteBuffer lastKey) {
+            this.generation = generation;
+            this.level = level;
+            this.dataGeneration = dataGeneration;
+            this.maxSequence = maxSequence;
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+        }
+
+        @NotNull
+        static Entry of(@NotNull final SSTable table) {
+            return new Entry(
+                    table.generation(),
+                    table.level(),
+                    table.dataGeneration(),
+                    table.maxSequence(),
+                    table.firstKey(),
+                    table.lastKey());
+        }
+
+        @NotNull
+        private static Entry read(@NotNull final ByteBuffer buffer) {
+            return new Entry(
+                    buffer.getLong(),
+                    buffer.getInt(),
+                    buffer.getLong(),
+                    buffer.getLong(),
+                    readKey(buffer),
+                    readKey(buffer));
+        }
+
+        @Nullable
+        private static ByteBuffer readKey(@NotNull final ByteBuffer buffer) {
+            final int size = buffer.getInt();
+            if (size < 0) {
+                return null;
+            }
+            final ByteBuffer key = Bytes.slice(buffer, buffer.position(), size);
+            buffer.position(buffer.position() + size);
+            return key;
+        }
+
+        private int size() {
+            return FIXED + keySize(firstKey) + keySize(lastKey);
+        }
+
+        private static int keySize(@Nullable final ByteBuffer key) {
+            return key == null ? 0 : key.remaining();
+        }
+
+        private void write(@NotNull final ByteBuffer buffer) {
+            buffer.putLong(generation);
+            buffer.putInt(level);
+            buffer.putLong(dataGeneration);
+            buffer.putLong(maxSequence);
+            writeKey(buffer, firstKey);
+            writeKey(buffer, lastKey);
+        }
+
+        private static void writeKey(
+                @NotNull final ByteBuffer buffer,
+                @Nullable final ByteBuffer key) {
+            if (key == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(key.remaining());
+                buffer.put(key.duplicate());
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a whole file of any size.
+ *
+ * <p>A single {@link MappedByteBuffer} can't exceed 2 GB, so the file is mapped in segments.
+ * Segment {@code i} starts at {@code i * segmentSize} and spans {@code overlap} more bytes,
+ * so any slice not longer than {@code overlap} is served from a single segment without copying.
+ */
+final class MappedFile {
+    static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+    static final int DEFAULT_OVERLAP = 1 << 24;
+
+    private final long size;
+    private final long segmentSize;
+    private final MappedByteBuffer[] segments;
+
+    MappedFile(@NotNull final FileChannel channel) throws IOException {
+        this(channel, DEFAULT_SEGMENT_SIZE, DEFAULT_OVERLAP);
+    }
+
+    MappedFile(
+            @NotNull final FileChannel channel,
+            final long segmentSize,
+            final int overlap) throws IOException {
+        if (overlap < Long.BYTES || segmentSize + overlap > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad segmentation: " + segmentSize + "+" + overlap);
+        }
+
+        this.size = channel.size();
+        this.segmentSize = segmentSize;
+        final int count = (int) Math.max(1, (size + segmentSize - 1) / segmentSize);
+        this.segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            final long start = i * segmentSize;
+            final long length = Math.min(size - start, segmentSize + overlap);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    int getInt(final long position) {
+        final MappedByteBuffer segment = segment(position);
+        final int offset = offset(position);
+        if (offset + Integer.BYTES <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        return slice(position, Integer.BYTES).getInt();
+    }
+
+    long getLong(final long position) {
+        final MappedByteBuffer segment = segment(position);
+        final int offset = offset(position);
+        if (offset + Long.BYTES <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        return slice(position, Long.BYTES).getLong();
+    }
+
+    /**
+     * Get a read-only view of {@code length} bytes starting at {@code position}.
+     *
+     * <p>The view points directly into the mapping unless it crosses a segment end.
+     */
+    @NotNull
+    ByteBuffer slice(
+            final long position,
+            final int length) {
+        if (position < 0 || length < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("Slice " + position + "+" + length + " of " + size);
+        }
+
+        final MappedByteBuffer segment = segment(position);
+        final int offset = offset(position);
+        if (offset + length <= segment.limit()) {
+            final ByteBuffer result = segment.duplicate();
+            result.position(offset).limit(offset + length);
+            return result.slice();
+        }
+
+        // Spans several segments
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        long current = position;
+        while (result.hasRemaining()) {
+            final ByteBuffer part = segment(current).duplicate();
+            final int from = offset(current);
+            part.position(from).limit(Math.min(part.limit(), from + result.remaining()));
+            current += part.remaining();
+            result.put(part);
+        }
+        return result.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Compare {@code length} bytes at {@code position} with {@code key} the same way
+     * {@link ByteBuffer#compareTo(ByteBuffer)} does, but without creating any views.
+     */
+    int compare(
+            final long position,
+            final int length,
+            @NotNull final ByteBuffer key) {
+        final int common = Math.min(length, key.remaining());
+        MappedByteBuffer segment = segment(position);
+        int offset = offset(position);
+        for (int i = 0; i < common; i++) {
+            if (offset == segment.limit()) {
+                segment = segment(position + i);
+                offset = offset(position + i);
+            }
+            final int cmp = Byte.compare(segment.get(offset++), key.get(key.position() + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.remaining();
+    }
+
+    @NotNull
+    private MappedByteBuffer segment(final long position) {
+        return segments[(int) (position / segmentSize)];
+    }
+
+    private int offset(final long position) {
+        return (int) (position % segmentSize);
+    }
+}
@@ -0,0 +1,104 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * In-memory {@link Table} accumulating writes until it is flushed to disk.
+ *
+ * <p>Implementations are lock-free and keep every written version of a key ordered by the
+ * {@link CommitLog} sequence numbers, so snapshots can read the table as of any point of the log.
+ */
+interface MemTable extends Table {
+    /**
+     * Create a {@link MemTable} of the kind selected by the {@code config}.
+     */
+    @NotNull
+    static MemTable create(
+            final long generation,
+            @NotNull final Config config) {
+        if (config.offHeapBudget() > 0) {
+            // Half of the budget, so that both the table being written and the one being flushed fit into it
+            return new OffHeapMemTable(generation, Math.min(config.flushThreshold(), config.offHeapBudget() / 2));
+        }
+        return new HeapMemTable(generation, config.flushThreshold());
+    }
+
+    @NotNull
+    @Override
+    default Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return iterator(from, null, Long.MAX_VALUE);
+    }
+
+    @NotNull
+    @Override
+    default Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long snapshot) {
+        return Versions.visible(versions(from, to), snapshot);
+    }
+
+    @NotNull
+    @Override
+    default Iterator<Cell> versions(@NotNull final ByteBuffer from) {
+        return versions(from, null);
+    }
+
+    @NotNull
+    @Override
+    Iterator<Cell> versions(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to);
+
+    @NotNull
+    @Override
+    default Iterator<Cell> descendingIterator(
+            @Nullable final ByteBuffer to,
+            final long snapshot) {
+        return Versions.visibleDescending(descendingVersions(to), snapshot);
+    }
+
+    @NotNull
+    @Override
+    Iterator<Cell> descendingVersions(@Nullable ByteBuffer to);
+
+    @Nullable
+    @Override
+    default Cell get(@NotNull final ByteBuffer key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    @Nullable
+    @Override
+    Cell get(
+            @NotNull ByteBuffer key,
+            long snapshot);
+
+    boolean isEmpty();
+
+    /**
+     * Check whether the table has grown to its size limit and has to be flushed.
+     */
+    boolean isFull();
+
+    void upsert(
+            @NotNull ByteBuffer key,
+            @NotNull ByteBuffer value,
+            long sequence);
+
+    void remove(
+            @NotNull ByteBuffer key,
+            long sequence);
+
+    /**
+     * Remove all the keys from {@code from} inclusive to {@code to} exclusive written before the {@code sequence}.
+     */
+    void removeRange(
+            @NotNull ByteBuffer from,
+            @NotNull ByteBuffer to,
+            long sequence);
+}
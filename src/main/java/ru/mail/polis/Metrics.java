@@ -0,0 +1,90 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a {@link MyDAO}.
+ *
+ * <p>Everything is striped via {@link LongAdder}, so recording on the hot path takes no locks
+ * and concurrent threads rarely touch the same cache line.
+ */
+final class Metrics {
+    final LatencyHistogram get = new LatencyHistogram();
+    final LatencyHistogram upsert = new LatencyHistogram();
+    final LatencyHistogram remove = new LatencyHistogram();
+    final LatencyHistogram iterator = new LatencyHistogram();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder tablesProbed = new LongAdder();
+    private final LongAdder bloomNegatives = new LongAdder();
+    private final LongAdder bloomFalsePositives = new LongAdder();
+    private final LongAdder bytesFlushed = new LongAdder();
+    private final LongAdder bytesCompacted = new LongAdder();
+
+    /**
+     * Record a point lookup.
+     *
+     * @param probed tables whose data was read
+     * @param negatives {@link SSTable}s skipped by their {@link BloomFilter}s
+     * @param falsePositives {@link SSTable}s read in vain after their {@link BloomFilter}s allowed the key
+     */
+    void lookup(
+            final int probed,
+            final int negatives,
+            final int falsePositives) {
+        lookups.increment();
+        tablesProbed.add(probed);
+        if (negatives > 0) {
+            bloomNegatives.add(negatives);
+        }
+        if (falsePositives > 0) {
+            bloomFalsePositives.add(falsePositives);
+        }
+    }
+
+    /**
+     * Record {@code count} lookups made at once, the other counts are their totals.
+     */
+    void lookups(
+            final int count,
+            final long probed,
+            final long negatives,
+            final long falsePositives) {
+        lookups.add(count);
+        tablesProbed.add(probed);
+        bloomNegatives.add(negatives);
+        bloomFalsePositives.add(falsePositives);
+    }
+
+    void flushed(final long bytes) {
+        bytesFlushed.add(bytes);
+    }
+
+    void compacted(final long bytes) {
+        bytesCompacted.add(bytes);
+    }
+
+    @NotNull
+    Stats snapshot(
+            @NotNull final BlockCache cache,
+            @Nullable final RowCache rows) {
+        return new Stats(
+                get.snapshot(),
+                upsert.snapshot(),
+                remove.snapshot(),
+                iterator.snapshot(),
+                lookups.sum(),
+                tablesProbed.sum(),
+                bloomNegatives.sum(),
+                bloomFalsePositives.sum(),
+                cache.hits(),
+                cache.misses(),
+                rows == null ? 0L : rows.hits(),
+                rows == null ? 0L : rows.misses(),
+                bytesFlushed.sum(),
+                bytesCompacted.sum());
+    }
+}
@@ -1,34 +1,1490 @@
 package ru.mail.polis;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * LSM {@link DAO}: writes go to the {@link CommitLog} and the {@link MemTable}, which is flushed
+ * to an immutable {@link SSTable} in the data directory as soon as it is {@link MemTable#isFull() full}.
+ *
+ * <p>Every {@link MemTable} has its own {@link CommitLog} of the same generation, removed after the flush.
+ * Logs left by a crash are replayed and flushed on open.
+ *
+ * <p>The DAO is thread-safe. Writers and readers share {@link #lock} only to get a consistent set of tables,
+ * the exclusive mode is taken just to switch to a new {@link MemTable} or install a new {@link SSTable}.
+ * A full {@link MemTable} is written to disk by the writer that filled it while the others keep writing to a fresh one.
+ *
+ * <p>{@link SSTable}s are merged in the background as picked by the {@link CompactionStrategy}, one compaction at a time.
+ * A compaction producing several tables is split into key ranges merged in parallel by {@link #compactors}.
+ * The merged tables are replaced by the whole result in exclusive mode and then removed from disk.
+ *
+ * <p>Point lookups of the latest values may be served by the optional {@link RowCache},
+ * every write invalidates the cached entries of its keys.
+ *
+ * <p>The set of live {@link SSTable}s is recorded in the {@link Manifest} before it changes, so reopening
+ * doesn't scan the tables and removes the ones left behind by an interrupted flush or compaction.
+ *
+ * <p>Every write is stamped with its {@link CommitLog} sequence number and the tables keep all the versions
+ * open {@link Snapshot}s may read, flushes and compactions drop the rest.
+ *
+ * <p>{@link #removeRange} writes a single {@link RangeTombstone} applied to the cells of all the tables as they are
+ * read. Flushes and compactions drop the deleted versions, skipping whole data blocks without reading them,
+ * and then the tombstone itself once no older table or open {@link Snapshot} may need it.
+ */
 public class MyDAO implements DAO {
-  private final NavigableMap<ByteBuffer, Record> database = new TreeMap<>();
-
-  @NotNull
-  @Override
-  public Iterator<Record> iterator(@NotNull final ByteBuffer from){
-    return database.tailMap(from).values().iterator();
-  }
-
-  @Override
-  public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value){
-    database.put(key, Record.of(key, value));
-  }
-
-  @Override
-  public void remove(@NotNull final ByteBuffer key){
-    database.remove(key);
-  }
-
-  @Override
-  public void close() {
-    //comes soon
-    throw new UnsupportedOperationException();
-  }
+    private static final Logger log = LoggerFactory.getLogger(MyDAO.class);
+    private static final long LATEST = Long.MAX_VALUE;
+    /**
+     * Number of keys of a multi-get worth probing all the tables on disk in parallel.
+     */
+    private static final int PARALLEL_KEYS = 64;
+
+    private final File data;
+    private final Config config;
+    private final BlockCache blockCache;
+    @Nullable
+    private final RowCache rowCache;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock flushLock = new ReentrantLock();
+    private final DeletedRanges deletedRanges = new DeletedRanges();
+    private final Snapshots snapshots = new Snapshots();
+    private final Metrics metrics = new Metrics();
+    @Nullable
+    private final ObjectName mbean;
+    private final AtomicLong generations;
+    @Nullable
+    private final ScheduledExecutorService syncer;
+    private final CompactionStrategy compaction;
+    private final Lock compactionLock = new ReentrantLock();
+    private final ExecutorService compactor;
+    private final ForkJoinPool compactors;
+    private final Manifest manifest;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    // Written holding flushLock
+    private volatile boolean closed;
+
+    // Guarded by lock
+    private List<SSTable> ssTables;
+    private long version;
+    private volatile MemTable memTable;
+    @Nullable
+    private MemTable flushing;
+    private volatile CommitLog commitLog;
+
+    MyDAO(
+            @NotNull final File data,
+            @NotNull final Config config) throws IOException {
+        this.data = data;
+        this.config = config;
+        this.blockCache = new BlockCache(config.blockCacheSize());
+        this.rowCache = config.rowCacheSize() > 0 ? new RowCache(config.rowCacheSize()) : null;
+
+        this.manifest = Manifest.open(data);
+        final File[] files = data.listFiles();
+        if (files == null) {
+            throw new IOException("Can't list directory: " + data);
+        }
+        final NavigableMap<Long, File> logs = new TreeMap<>();
+        final NavigableMap<Long, File> tableFiles = new TreeMap<>();
+        long generation = 0L;
+        for (final File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(SSTable.TEMP)) {
+                // Leftover of an interrupted flush
+                java.nio.file.Files.delete(file.toPath());
+            } else if (name.endsWith(SSTable.SUFFIX)) {
+                final long tableGeneration = generation(name, SSTable.SUFFIX);
+                tableFiles.put(tableGeneration, file);
+                generation = Math.max(generation, tableGeneration + 1);
+            } else if (name.endsWith(CommitLog.SUFFIX)) {
+                final long logGeneration = generation(name, CommitLog.SUFFIX);
+                logs.put(logGeneration, file);
+                generation = Math.max(generation, logGeneration + 1);
+            }
+        }
+
+        final NavigableMap<Long, Manifest.Entry> live = manifest.live();
+        if (manifest.existed()) {
+            for (final Manifest.Entry entry : live.values()) {
+                if (!tableFiles.containsKey(entry.generation)) {
+                    throw new IOException("Missing table " + entry.generation + " in " + data);
+                }
+                generation = Math.max(generation, entry.generation + 1);
+            }
+            for (final File file : tableFiles.values()) {
+                if (!live.containsKey(generation(file.getName(), SSTable.SUFFIX))) {
+                    // Output of a flush or compaction interrupted before it was recorded
+                    log.info("Removing unrecorded table {}", file);
+                    java.nio.file.Files.delete(file.toPath());
+                }
+            }
+            tableFiles.keySet().retainAll(live.keySet());
+        }
+
+        // Opening a recorded table maps the file and reads the footer, the index is read on demand
+        this.compactors = new ForkJoinPool(config.compactionThreads());
+        final List<ForkJoinTask<SSTable>> opening = new ArrayList<>(tableFiles.size());
+        for (final File file : tableFiles.values()) {
+            opening.add(compactors.submit(() -> open(file, live)));
+        }
+        final List<SSTable> tables = new ArrayList<>(opening.size());
+        long maxSequence = 0L;
+        try {
+            for (final ForkJoinTask<SSTable> task : opening) {
+                final SSTable table = task.get();
+                tables.add(table);
+                maxSequence = Math.max(maxSequence, table.maxSequence());
+            }
+        } catch (ExecutionException e) {
+            compactors.shutdown();
+            throw new IOException("Can't open tables in " + data, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            compactors.shutdown();
+            throw new InterruptedIOException("Interrupted opening tables in " + data);
+        }
+        tables.sort(SSTable.NEWEST_FIRST);
+        this.ssTables = List.copyOf(tables);
+        // Writes continue the sequence of the data on disk
+        this.sequence.set(maxSequence);
+        log.debug("Opened {} tables in {}", ssTables.size(), data);
+
+        // Start the log afresh: drops a torn tail and records the tables of a directory without a manifest
+        manifest.apply(List.of(), ssTables);
+
+        this.generations = new AtomicLong(generation);
+        this.memTable = MemTable.create(generation, config);
+        this.compaction = config.compaction().create(config);
+        this.compactor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("compaction-%d")
+                        .setDaemon(true)
+                        .build());
+
+        recover(logs.values());
+        this.commitLog = new CommitLog(logFile(memTable.generation()), config.syncPolicy(), sequence);
+
+        if (config.syncPolicy() == CommitLog.SyncPolicy.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("commit-log-sync-%d")
+                            .setDaemon(true)
+                            .build());
+            syncer.scheduleWithFixedDelay(
+                    this::sync,
+                    config.syncIntervalMillis(),
+                    config.syncIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+        this.mbean = register();
+        scheduleCompaction();
+    }
+
+    /**
+     * Expose the {@link Stats} via JMX, failing to do so is not fatal.
+     */
+    @Nullable
+    private ObjectName register() {
+        try {
+            final ObjectName name =
+                    new ObjectName("ru.mail.polis:type=DAO,name=" + ObjectName.quote(data.getAbsolutePath()));
+            final StatsMXBean bean = this::stats;
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+            return name;
+        } catch (JMException e) {
+            log.warn("Can't register MBean for {}", data, e);
+            return null;
+        }
+    }
+
+    /**
+     * Get a snapshot of the metrics recorded since the DAO was opened.
+     */
+    @NotNull
+    @Override
+    public Stats stats() {
+        return metrics.snapshot(blockCache, rowCache);
+    }
+
+    /**
+     * Open the table {@code file} checking it against its {@code live} manifest entry if there is one.
+     */
+    @NotNull
+    private SSTable open(
+            @NotNull final File file,
+            @NotNull final Map<Long, Manifest.Entry> live) throws IOException {
+        final long generation = generation(file.getName(), SSTable.SUFFIX);
+        final Manifest.Entry entry = live.get(generation);
+        final SSTable table = entry == null
+                ? new SSTable(file, generation, blockCache)
+                : new SSTable(file, generation, blockCache, entry.firstKey, entry.lastKey);
+        if (entry != null
+                && (entry.level != table.level()
+                || entry.dataGeneration != table.dataGeneration()
+                || entry.maxSequence != table.maxSequence())) {
+            table.close();
+            throw new IOException("Table doesn't match the manifest: " + file);
+        }
+        return table;
+    }
+
+    private static long generation(
+            @NotNull final String name,
+            @NotNull final String suffix) throws IOException {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected file name: " + name, e);
+        }
+    }
+
+    /**
+     * Replay the commit {@code logs} from the oldest to the newest, flush their contents and remove them.
+     */
+    private void recover(@NotNull final Iterable<File> logs) throws IOException {
+        final CommitLog.Handler handler = new CommitLog.Handler() {
+            @Override
+            public void upsert(
+                    @NotNull final ByteBuffer key,
+                    @NotNull final ByteBuffer value) throws IOException {
+                memTable.upsert(key, value, sequence.incrementAndGet());
+                flushRecovered(false);
+            }
+
+            @Override
+            public void remove(@NotNull final ByteBuffer key) throws IOException {
+                memTable.remove(key, sequence.incrementAndGet());
+                flushRecovered(false);
+            }
+
+            @Override
+            public void removeRange(
+                    @NotNull final ByteBuffer from,
+                    @NotNull final ByteBuffer to) throws IOException {
+                memTable.removeRange(from, to, sequence.incrementAndGet());
+                flushRecovered(false);
+            }
+        };
+
+        for (final File file : logs) {
+            log.info("Replaying {}", file);
+            CommitLog.replay(file, handler);
+        }
+        flushRecovered(true);
+        for (final File file : logs) {
+            java.nio.file.Files.delete(file.toPath());
+        }
+    }
+
+    private void flushRecovered(final boolean force) throws IOException {
+        final MemTable current = memTable;
+        if (current.isEmpty() || !force && !current.isFull()) {
+            return;
+        }
+
+        final SSTable table = write(current);
+        record(List.of(), List.of(table));
+        install(table);
+        memTable = MemTable.create(generations.incrementAndGet(), config);
+    }
+
+    /**
+     * Durably record in the {@link Manifest} that the {@code added} tables replace the {@code removed} ones,
+     * removing the {@code added} tables if that fails.
+     */
+    private void record(
+            @NotNull final Collection<SSTable> removed,
+            @NotNull final Collection<SSTable> added) throws IOException {
+        try {
+            manifest.apply(removed, added);
+        } catch (IOException e) {
+            for (final SSTable table : added) {
+                table.close();
+                java.nio.file.Files.deleteIfExists(tableFile(table.generation()).toPath());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Add the {@code table} to the set of {@link SSTable}s, must be called in exclusive mode.
+     */
+    private void install(@NotNull final SSTable table) {
+        replace(List.of(), List.of(table));
+    }
+
+    /**
+     * Replace the {@code removed} {@link SSTable}s with the {@code added} ones, must be called in exclusive mode.
+     */
+    private void replace(
+            @NotNull final Collection<SSTable> removed,
+            @NotNull final Collection<SSTable> added) {
+        final List<SSTable> tables = new ArrayList<>(ssTables.size() + added.size());
+        for (final SSTable table : ssTables) {
+            if (!removed.contains(table)) {
+                tables.add(table);
+            }
+        }
+        tables.addAll(added);
+        tables.sort(SSTable.NEWEST_FIRST);
+        ssTables = List.copyOf(tables);
+        deletedRanges.invalidate(++version);
+    }
+
+    /**
+     * Get a consistent snapshot of the {@link SSTable}s from the newest to the oldest.
+     */
+    @NotNull
+    List<SSTable> ssTables() {
+        lock.readLock().lock();
+        try {
+            return ssTables;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @NotNull
+    private File logFile(final long generation) {
+        return new File(data, generation + CommitLog.SUFFIX);
+    }
+
+    /**
+     * Get the {@link BlockCache} shared by the tables to inspect its hit and miss counters.
+     */
+    @NotNull
+    BlockCache blockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Get a consistent snapshot of all the tables.
+     */
+    @NotNull
+    private View view() {
+        lock.readLock().lock();
+        try {
+            final List<Table> tables = new ArrayList<>(ssTables.size() + 2);
+            tables.add(memTable);
+            if (flushing != null) {
+                tables.add(flushing);
+            }
+            tables.addAll(ssTables);
+            return new View(tables, version);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return iterator(from, null, LATEST);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(
+            @NotNull final ByteBuffer from,
+            @NotNull final Snapshot snapshot) throws IOException {
+        return iterator(from, null, sequence(snapshot));
+    }
+
+    /**
+     * Pass the bound down to the tables, so they don't read past it and no sentinel is compared per record.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return range(from, to, LATEST);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final Snapshot snapshot) throws IOException {
+        return range(from, to, sequence(snapshot));
+    }
+
+    @NotNull
+    private Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long snapshot) throws IOException {
+        if (to != null && from.compareTo(to) >= 0) {
+            return Iters.empty();
+        }
+        return iterator(from, to, snapshot);
+    }
+
+    @NotNull
+    private Iterator<Record> iterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long snapshot) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            final View view = view();
+            return new LiveIterator(cells(view, from, to, snapshot), from, to, view.version, snapshot == LATEST);
+        } finally {
+            metrics.iterator.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the freshest {@link Cell}s as of the {@code snapshot} from all the tables of the {@code view}
+     * with keys from {@code from} inclusive to {@code to} exclusive or till the end if {@code to} is {@code null}.
+     */
+    @NotNull
+    private Iterator<Cell> cells(
+            @NotNull final View view,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long snapshot) throws IOException {
+        // Don't read the tombstones of SSTables again if it is known there is nothing else,
+        // the older versions seen by snapshots may be there though
+        final ByteBuffer ssTablesFrom = snapshot == LATEST ? deletedRanges.skip(view.version, from) : from;
+        final RangeTombstones rangeTombstones = rangeTombstones(view.tables, snapshot);
+
+        final List<Iterator<Cell>> iters = new ArrayList<>(view.tables.size());
+        for (final Table table : view.tables) {
+            if (table instanceof MemTable) {
+                iters.add(table.iterator(from, to, snapshot));
+            } else if (ssTablesFrom != null && rangeTombstones.isEmpty()) {
+                iters.add(table.iterator(ssTablesFrom, to, snapshot));
+            } else if (ssTablesFrom != null) {
+                // Blocks older than the range tombstones covering them hold nothing to read
+                final SSTable ssTable = (SSTable) table;
+                final Iterator<Cell> versions = ssTable.versions(
+                        ssTablesFrom,
+                        to,
+                        (blockFrom, blockTo) -> rangeTombstones.covers(blockFrom, blockTo, ssTable.maxSequence()));
+                iters.add(Versions.visible(versions, snapshot));
+            }
+        }
+        return Versions.deleted(Iters.merge(iters, Cell.COMPARATOR), rangeTombstones);
+    }
+
+    /**
+     * Get the range tombstones of all the {@code tables} visible to the {@code snapshot}.
+     */
+    @NotNull
+    private static RangeTombstones rangeTombstones(
+            @NotNull final List<Table> tables,
+            final long snapshot) {
+        final List<RangeTombstone> result = new ArrayList<>();
+        for (final Table table : tables) {
+            result.addAll(table.rangeTombstones());
+        }
+        return RangeTombstones.of(result, snapshot);
+    }
+
+    /**
+     * Check whether the {@code cell} found in the {@code tables} is deleted by one of their range tombstones
+     * visible to the {@code snapshot}.
+     *
+     * <p>Range tombstones are few, so they are just scanned.
+     */
+    private static boolean deleted(
+            @NotNull final List<Table> tables,
+            @NotNull final Cell cell,
+            final long snapshot) {
+        for (final Table table : tables) {
+            for (final RangeTombstone tombstone : table.rangeTombstones()) {
+                if (tombstone.sequence() > cell.getSequence()
+                        && tombstone.sequence() <= snapshot
+                        && tombstone.contains(cell.getKey())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merge the tables read backwards, so a tail of the data costs as much as its size.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> descendingIterator(@Nullable final ByteBuffer to) throws IOException {
+        final View view = view();
+        final List<Iterator<Cell>> iters = new ArrayList<>(view.tables.size());
+        for (final Table table : view.tables) {
+            iters.add(table.descendingIterator(to, LATEST));
+        }
+        final Iterator<Cell> cells =
+                Versions.deleted(Iters.mergeDescending(iters, Cell.COMPARATOR), rangeTombstones(view.tables, LATEST));
+        return Iterators.transform(Iterators.filter(cells, cell -> !cell.isTombstone()), Cell::toRecord);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        return get(key, LATEST);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            @NotNull final Snapshot snapshot) throws IOException, NoSuchElementException {
+        return get(key, sequence(snapshot));
+    }
+
+    @NotNull
+    private ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            final long snapshot) throws IOException, NoSuchElementException {
+        final long start = System.nanoTime();
+        try {
+            if (rowCache == null || snapshot != LATEST) {
+                return lookup(key, snapshot);
+            }
+
+            final RowCache.Entry cached = rowCache.get(key);
+            if (cached != null) {
+                return cached.value();
+            }
+            final long stamp = rowCache.stamp(key);
+            final ByteBuffer value;
+            try {
+                value = lookup(key, snapshot);
+            } catch (NoSuchElementException e) {
+                rowCache.put(key, null, stamp);
+                throw e;
+            }
+            rowCache.put(key, value, stamp);
+            return value;
+        } finally {
+            metrics.get.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Look the {@code key} up in the tables from the newest to the oldest.
+     */
+    @NotNull
+    private ByteBuffer lookup(
+            @NotNull final ByteBuffer key,
+            final long snapshot) throws IOException, NoSuchElementException {
+        int probed = 0;
+        int negatives = 0;
+        int falsePositives = 0;
+        try {
+            final long hash = BloomFilter.hash(key);
+            final List<Table> tables = view().tables;
+            for (final Table table : tables) {
+                // Consult the filter before touching any table data
+                if (!table.mightContain(hash)) {
+                    negatives++;
+                    continue;
+                }
+                probed++;
+                final Cell cell = table.get(key, snapshot);
+                if (cell != null) {
+                    if (deleted(tables, cell, snapshot)) {
+                        throw new NoSuchElementException("Removed");
+                    }
+                    return value(cell);
+                }
+                if (table instanceof SSTable) {
+                    falsePositives++;
+                }
+            }
+            throw new NoSuchElementException("Not found");
+        } finally {
+            metrics.lookup(probed, negatives, falsePositives);
+        }
+    }
+
+    /**
+     * Look the {@code keys} up all at once: sorted, so that keys in the same block share a single read,
+     * and checked against the Bloom filter of a table before any of its data is read.
+     *
+     * <p>The in-memory tables are probed first. If enough keys remain, they are split into parts going through
+     * the tables on disk in parallel by {@link #compactors}.
+     * Like writes, it fails with {@link ClosedChannelException} once the DAO is closed.
+     */
+    @NotNull
+    @Override
+    public Map<ByteBuffer, ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return lookupAll(keys);
+        } finally {
+            metrics.get.record(System.nanoTime() - start);
+        }
+    }
+
+    @NotNull
+    private Map<ByteBuffer, ByteBuffer> lookupAll(@NotNull final Collection<ByteBuffer> keys) throws IOException {
+        final List<ByteBuffer> sorted = new ArrayList<>(new TreeSet<>(keys));
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        final BitSet pending = new BitSet(sorted.size());
+        pending.set(0, sorted.size());
+        final long[] stamps = new long[sorted.size()];
+        if (rowCache != null) {
+            for (int i = 0; i < sorted.size(); i++) {
+                final ByteBuffer key = sorted.get(i);
+                final RowCache.Entry cached = rowCache.get(key);
+                if (cached == null) {
+                    stamps[i] = rowCache.stamp(key);
+                } else {
+                    pending.clear(i);
+                    if (!cached.isAbsent()) {
+                        result.put(key, cached.value());
+                    }
+                }
+            }
+        }
+
+        final List<Table> tables = view().tables;
+        final Cell[] found = lookup(tables, sorted, pending, LATEST);
+        for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+            final ByteBuffer key = sorted.get(i);
+            final Cell cell = found[i];
+            final ByteBuffer value = cell == null || deleted(tables, cell, LATEST) ? null : cell.getValue();
+            if (value != null) {
+                result.put(key, value.asReadOnlyBuffer());
+            }
+            if (rowCache != null) {
+                rowCache.put(key, value, stamps[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Look up the {@code pending} of the sorted {@code keys} in the {@code tables} as of the {@code snapshot}.
+     *
+     * @return the newest cells found, possibly tombstones, at the indexes of their keys
+     */
+    @NotNull
+    private Cell[] lookup(
+            @NotNull final List<Table> tables,
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final BitSet pending,
+            final long snapshot) throws IOException {
+        final Cell[] result = new Cell[keys.size()];
+        final long[] hashes = new long[keys.size()];
+        for (int i = pending.nextSetBit(0); i >= 0; i = pending.nextSetBit(i + 1)) {
+            hashes[i] = BloomFilter.hash(keys.get(i));
+        }
+
+        final BitSet remaining = (BitSet) pending.clone();
+        // Probed keys, filter negatives and filter false positives
+        final long[] counts = new long[3];
+        int t = 0;
+        while (t < tables.size() && !(tables.get(t) instanceof SSTable)) {
+            probe(tables.subList(t, t + 1), keys, hashes, remaining, snapshot, result, counts);
+            t++;
+        }
+
+        final List<Table> disk = tables.subList(t, tables.size());
+        final int parts = Math.min(compactors.getParallelism(), remaining.cardinality() / PARALLEL_KEYS);
+        if (disk.size() > 1 && parts > 1) {
+            // Every part of the keys goes through the tables on its own, older tables get only the unresolved keys
+            final List<ForkJoinTask<long[]>> tasks = new ArrayList<>(parts);
+            final int size = (remaining.cardinality() + parts - 1) / parts;
+            int from = remaining.nextSetBit(0);
+            while (from >= 0) {
+                final BitSet part = new BitSet(keys.size());
+                int i = from;
+                for (int n = 0; n < size && i >= 0; n++, i = remaining.nextSetBit(i + 1)) {
+                    part.set(i);
+                }
+                from = i;
+                try {
+                    tasks.add(compactors.submit(() -> {
+                        final long[] partCounts = new long[counts.length];
+                        probe(disk, keys, hashes, part, snapshot, result, partCounts);
+                        return partCounts;
+                    }));
+                } catch (RejectedExecutionException e) {
+                    throw new ClosedChannelException();
+                }
+            }
+            for (final ForkJoinTask<long[]> task : tasks) {
+                final long[] partCounts = join(task);
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += partCounts[i];
+                }
+            }
+        } else {
+            probe(disk, keys, hashes, remaining, snapshot, result, counts);
+        }
+        metrics.lookups(pending.cardinality(), counts[0], counts[1], counts[2]);
+        return result;
+    }
+
+    /**
+     * Look up the {@code remaining} keys in the {@code tables} from the newest to the oldest, each key only until
+     * its newest cell is found, clearing the keys found and adding to the probe {@code counts}.
+     */
+    private static void probe(
+            @NotNull final List<Table> tables,
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final long[] hashes,
+            @NotNull final BitSet remaining,
+            final long snapshot,
+            @NotNull final Cell[] result,
+            @NotNull final long[] counts) throws IOException {
+        for (int t = 0; t < tables.size() && !remaining.isEmpty(); t++) {
+            final Table table = tables.get(t);
+            final BitSet c = candidates(table, hashes, remaining);
+            counts[0] += c.cardinality();
+            counts[1] += remaining.cardinality() - c.cardinality();
+            table.get(keys, c, snapshot, result);
+            for (int i = c.nextSetBit(0); i >= 0; i = c.nextSetBit(i + 1)) {
+                if (result[i] != null) {
+                    remaining.clear(i);
+                } else if (table instanceof SSTable) {
+                    counts[2]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the {@code remaining} keys the Bloom filter of the {@code table} allows.
+     */
+    @NotNull
+    private static BitSet candidates(
+            @NotNull final Table table,
+            @NotNull final long[] hashes,
+            @NotNull final BitSet remaining) {
+        final BitSet result = new BitSet(hashes.length);
+        for (int i = remaining.nextSetBit(0); i >= 0; i = remaining.nextSetBit(i + 1)) {
+            if (table.mightContain(hashes[i])) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    private static <T> T join(@NotNull final ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Lookup failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted lookup");
+        }
+    }
+
+    /**
+     * Take a {@link Snapshot} at the last applied write.
+     *
+     * <p>Exclusive mode waits for the writes logged but not yet applied, batches included.
+     */
+    @NotNull
+    @Override
+    public Snapshot snapshot() {
+        lock.writeLock().lock();
+        try {
+            return snapshots.acquire(sequence.get());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long sequence(@NotNull final Snapshot snapshot) {
+        if (snapshot.owner() != snapshots) {
+            throw new IllegalArgumentException("Snapshot of another DAO");
+        }
+        return snapshot.sequence();
+    }
+
+    @NotNull
+    private static ByteBuffer value(@NotNull final Cell cell) {
+        final ByteBuffer value = cell.getValue();
+        if (value == null) {
+            throw new NoSuchElementException("Removed");
+        }
+        return value.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            // Shared mode keeps the memtable from being switched between logging and applying
+            lock.readLock().lock();
+            try {
+                final long seq = commitLog.append(CommitLog.upsert(key, value));
+                memTable.upsert(key, value, seq);
+            } finally {
+                lock.readLock().unlock();
+            }
+            invalidate(key);
+            flushIfFull();
+        } finally {
+            metrics.upsert.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            lock.readLock().lock();
+            try {
+                final long seq = commitLog.append(CommitLog.remove(key));
+                memTable.remove(key, seq);
+            } finally {
+                lock.readLock().unlock();
+            }
+            invalidate(key);
+            flushIfFull();
+        } finally {
+            metrics.remove.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Log a single {@link RangeTombstone} however many keys it removes.
+     */
+    @Override
+    public void removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        if (from.compareTo(to) >= 0) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            lock.readLock().lock();
+            try {
+                final long seq = commitLog.append(CommitLog.removeRange(from, to));
+                memTable.removeRange(from, to, seq);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (rowCache != null) {
+                rowCache.invalidate(from, to);
+            }
+            flushIfFull();
+        } finally {
+            metrics.remove.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Log the {@code batch} as a single {@link CommitLog} entry and apply it to the same {@link MemTable}.
+     */
+    @Override
+    public void write(@NotNull final WriteBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        lock.readLock().lock();
+        try {
+            final long last = commitLog.append(CommitLog.batch(batch), batch.size());
+            long seq = last - batch.size();
+            for (int i = 0; i < batch.size(); i++) {
+                final ByteBuffer value = batch.value(i);
+                if (value == null) {
+                    memTable.remove(batch.key(i), ++seq);
+                } else {
+                    memTable.upsert(batch.key(i), value, ++seq);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            invalidate(batch.key(i));
+        }
+        flushIfFull();
+    }
+
+    /**
+     * Drop the cached value of the {@code key} changed by a write.
+     */
+    private void invalidate(@NotNull final ByteBuffer key) {
+        if (rowCache != null) {
+            rowCache.invalidate(key);
+        }
+    }
+
+    private void flushIfFull() throws IOException {
+        if (!memTable.isFull()) {
+            return;
+        }
+
+        // Flushes go one at a time, writers hitting a full memtable meanwhile wait here
+        flushLock.lock();
+        try {
+            if (memTable.isFull()) {
+                flush();
+                scheduleCompaction();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Switch to a new {@link MemTable} and {@link CommitLog}, then write the old {@link MemTable} to disk
+     * and remove its {@link CommitLog}.
+     */
+    private void flush() throws IOException {
+        final MemTable frozen;
+        final CommitLog frozenLog;
+        lock.writeLock().lock();
+        try {
+            frozen = memTable;
+            frozenLog = commitLog;
+            final long generation = generations.incrementAndGet();
+            commitLog = new CommitLog(logFile(generation), config.syncPolicy(), sequence);
+            memTable = MemTable.create(generation, config);
+            flushing = frozen;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        frozenLog.close();
+
+        final SSTable table = write(frozen);
+        record(List.of(), List.of(table));
+        lock.writeLock().lock();
+        try {
+            install(table);
+            flushing = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        java.nio.file.Files.delete(logFile(frozen.generation()).toPath());
+    }
+
+    /**
+     * Write the {@link MemTable} to disk and merge all the {@link SSTable}s into the deepest level.
+     */
+    @Override
+    public void compact() throws IOException {
+        flushLock.lock();
+        try {
+            if (!memTable.isEmpty()) {
+                flush();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+
+        compactionLock.lock();
+        try {
+            final Compaction job = compaction.full(ssTables());
+            if (job != null) {
+                compact(job);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Estimate write amplification of the {@link CompactionStrategy} with the current tables.
+     */
+    double writeAmplification() {
+        return compaction.writeAmplification(ssTables());
+    }
+
+    /**
+     * Estimate read amplification of the {@link CompactionStrategy} with the current tables.
+     */
+    double readAmplification() {
+        return compaction.readAmplification(ssTables());
+    }
+
+    /**
+     * Run background compactions unless they are already running.
+     *
+     * <p>Must be called holding {@link #flushLock} so that the DAO is not closed meanwhile.
+     */
+    private void scheduleCompaction() {
+        if (!closed && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(this::compactInBackground);
+        }
+    }
+
+    private void compactInBackground() {
+        // Tables flushed from now on need another pass
+        compactionScheduled.set(false);
+        compactionLock.lock();
+        try {
+            while (!closed) {
+                final Compaction job = compaction.pick(ssTables());
+                if (job == null) {
+                    return;
+                }
+                compact(job);
+            }
+        } catch (IOException e) {
+            log.error("Background compaction failed", e);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Merge the tables of the {@code job} into new tables, install them and remove the merged ones,
+     * must be called holding {@link #compactionLock}.
+     *
+     * <p>Tombstones are dropped unless they may shadow a value in an older table not taking part in the merge.
+     * Until the merged tables are removed the new ones hold the same data, so a crash in between loses nothing.
+     */
+    private void compact(@NotNull final Compaction job) throws IOException {
+        final List<SSTable> inputs = job.inputs();
+        final ByteBuffer from = LeveledCompaction.firstKey(inputs);
+        final ByteBuffer to = LeveledCompaction.lastKey(inputs);
+        final List<SSTable> older = new ArrayList<>();
+        if (from != null && to != null) {
+            for (final SSTable table : ssTables()) {
+                if (SSTable.NEWEST_FIRST.compare(table, inputs.get(0)) > 0
+                        && !inputs.contains(table)
+                        && table.overlaps(from, to)) {
+                    older.add(table);
+                }
+            }
+        }
+
+        // Snapshots taken from now on see only the latest versions
+        final long[] open = snapshots.sequences();
+
+        // Range tombstones are dropped once they delete nothing left, in the older tables or for the snapshots
+        final List<RangeTombstone> rangeTombstones = new ArrayList<>();
+        for (final SSTable table : inputs) {
+            rangeTombstones.addAll(table.rangeTombstones());
+        }
+        final List<RangeTombstone> kept = new ArrayList<>();
+        for (final RangeTombstone tombstone : rangeTombstones) {
+            if (open.length > 0 && open[0] < tombstone.sequence() || overlaps(tombstone, older)) {
+                kept.add(tombstone);
+            }
+        }
+        final RangeTombstones deleted = RangeTombstones.of(rangeTombstones, LATEST);
+
+        // Split only the jobs producing several tables anyway
+        final long ranges = Math.min(compactors.getParallelism(), job.inputBytes() / compaction.tableSize());
+        final List<ByteBuffer> boundaries = ranges > 1 ? job.boundaries((int) ranges) : List.of();
+        final List<ForkJoinTask<List<SSTable>>> tasks = new ArrayList<>(boundaries.size() + 1);
+        for (int i = 0; i <= boundaries.size(); i++) {
+            final ByteBuffer rangeFrom = i == 0 ? ByteBuffer.allocate(0) : boundaries.get(i - 1);
+            final ByteBuffer rangeTo = i == boundaries.size() ? null : boundaries.get(i);
+            tasks.add(compactors.submit(() -> compact(job, rangeFrom, rangeTo, older, open, deleted, kept)));
+        }
+
+        // Install all the results at once or none of them
+        final List<SSTable> outputs = new ArrayList<>();
+        IOException failure = null;
+        for (final ForkJoinTask<List<SSTable>> task : tasks) {
+            try {
+                outputs.addAll(task.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IOException("Can't compact " + job, e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new InterruptedIOException("Interrupted compaction of " + job);
+                }
+            }
+        }
+        if (failure != null) {
+            for (final SSTable table : outputs) {
+                table.close();
+                java.nio.file.Files.deleteIfExists(tableFile(table.generation()).toPath());
+            }
+            throw failure;
+        }
+
+        record(inputs, outputs);
+        lock.writeLock().lock();
+        try {
+            replace(inputs, outputs);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (final SSTable table : outputs) {
+            metrics.compacted(table.sizeInBytes());
+        }
+        for (final SSTable table : inputs) {
+            table.close();
+            java.nio.file.Files.delete(tableFile(table.generation()).toPath());
+        }
+        log.debug("Compacted {} of {} bytes into {} tables", job, job.inputBytes(), outputs.size());
+    }
+
+    /**
+     * Merge the part of the {@code job} from {@code from} inclusive to {@code to} exclusive or till the end
+     * if {@code to} is {@code null}, keeping the versions the {@code open} snapshots need.
+     *
+     * <p>Versions {@code deleted} by range tombstones are dropped, the {@code kept} range tombstones go
+     * to the first table written.
+     */
+    @NotNull
+    private List<SSTable> compact(
+            @NotNull final Compaction job,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final List<SSTable> older,
+            @NotNull final long[] open,
+            @NotNull final RangeTombstones deleted,
+            @NotNull final List<RangeTombstone> kept) throws IOException {
+        final List<Iterator<Cell>> iters = new ArrayList<>(job.inputs().size());
+        for (final SSTable table : job.inputs()) {
+            iters.add(
+                    table.versions(
+                            from,
+                            to,
+                            (blockFrom, blockTo) -> deleted.hides(blockFrom, blockTo, table.maxSequence(), open)));
+        }
+        final Iterator<Cell> merged = Versions.uncovered(Iters.merge(iters, Cell.VERSION_COMPARATOR), deleted, open);
+        final PeekingIterator<Cell> cells =
+                Iterators.peekingIterator(Versions.retained(merged, open, key -> shadows(key, older)));
+        final List<RangeTombstone> rangeTombstones = new ArrayList<>();
+        for (final RangeTombstone tombstone : kept) {
+            final RangeTombstone clipped = tombstone.clip(from, to);
+            if (clipped != null) {
+                rangeTombstones.add(clipped);
+            }
+        }
+
+        final List<SSTable> outputs = new ArrayList<>();
+        try {
+            while (cells.hasNext() || outputs.isEmpty() && !rangeTombstones.isEmpty()) {
+                outputs.add(
+                        write(
+                                generations.incrementAndGet(),
+                                new SizeLimitedIterator(cells, compaction.tableSize()),
+                                job.dataGeneration(),
+                                job.outputLevel(),
+                                outputs.isEmpty() ? rangeTombstones : List.of()));
+            }
+        } catch (IOException e) {
+            for (final SSTable table : outputs) {
+                table.close();
+                java.nio.file.Files.deleteIfExists(tableFile(table.generation()).toPath());
+            }
+            throw e;
+        }
+        return outputs;
+    }
+
+    /**
+     * Write the {@code memTable} to a new {@link SSTable} of the same generation.
+     *
+     * <p>Versions no open {@link Snapshot} reads and tombstones shadowing nothing in the older tables are dropped.
+     * Range tombstones are all kept, they may delete versions in the older tables.
+     */
+    @NotNull
+    private SSTable write(@NotNull final MemTable memTable) throws IOException {
+        // All the tables on disk are older than any memtable
+        final List<SSTable> older = ssTables();
+        final long[] open = snapshots.sequences();
+        final List<RangeTombstone> rangeTombstones = List.copyOf(memTable.rangeTombstones());
+        final SSTable table = write(
+                memTable.generation(),
+                Versions.retained(
+                        Versions.uncovered(
+                                memTable.versions(ByteBuffer.allocate(0)),
+                                RangeTombstones.of(rangeTombstones, LATEST),
+                                open),
+                        open,
+                        key -> shadows(key, older)),
+                memTable.generation(),
+                0,
+                rangeTombstones);
+        metrics.flushed(table.sizeInBytes());
+        log.debug("Flushed {} bytes to table {}", memTable.sizeInBytes(), table.generation());
+        return table;
+    }
+
+    /**
+     * Write the {@code cells} and the {@code rangeTombstones} to a new {@link SSTable} of the {@code generation}.
+     */
+    @NotNull
+    private SSTable write(
+            final long generation,
+            @NotNull final Iterator<Cell> cells,
+            final long dataGeneration,
+            final int level,
+            @NotNull final List<RangeTombstone> rangeTombstones) throws IOException {
+        final File temp = new File(data, generation + SSTable.TEMP);
+        SSTable.write(temp, cells, config, dataGeneration, level, rangeTombstones);
+        final File file = tableFile(generation);
+        java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.syncDirectory(data);
+        return new SSTable(file, generation, blockCache);
+    }
+
+    @NotNull
+    private File tableFile(final long generation) {
+        return new File(data, generation + SSTable.SUFFIX);
+    }
+
+    /**
+     * Check whether a tombstone of the {@code key} may still hide a value in one of the {@code older} tables.
+     */
+    static boolean shadows(
+            @NotNull final ByteBuffer key,
+            @NotNull final Iterable<? extends Table> older) {
+        final long hash = BloomFilter.hash(key);
+        for (final Table table : older) {
+            if (table.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the range {@code tombstone} may delete a value in one of the {@code older} tables.
+     */
+    private static boolean overlaps(
+            @NotNull final RangeTombstone tombstone,
+            @NotNull final Iterable<SSTable> older) {
+        for (final SSTable table : older) {
+            if (table.overlaps(tombstone.from(), tombstone.to())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sync() {
+        try {
+            commitLog.sync();
+        } catch (IOException e) {
+            log.error("Can't sync commit log", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        if (mbean != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean);
+            } catch (JMException e) {
+                log.warn("Can't unregister MBean {}", mbean, e);
+            }
+        }
+
+        flushLock.lock();
+        try {
+            closed = true;
+        } finally {
+            flushLock.unlock();
+        }
+        compactor.shutdown();
+
+        // Wait for the running compaction, it stops after the current job
+        compactionLock.lock();
+        compactors.shutdown();
+        flushLock.lock();
+        lock.writeLock().lock();
+        try {
+            final long generation = memTable.generation();
+            if (!memTable.isEmpty()) {
+                final SSTable table = write(memTable);
+                record(List.of(), List.of(table));
+                install(table);
+            }
+            commitLog.close();
+            java.nio.file.Files.delete(logFile(generation).toPath());
+            for (final SSTable table : ssTables) {
+                table.close();
+            }
+            manifest.close();
+        } finally {
+            lock.writeLock().unlock();
+            flushLock.unlock();
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Consistent set of tables from the newest to the oldest.
+     */
+    private static final class View {
+        private final List<Table> tables;
+        private final long version;
+
+        View(
+                @NotNull final List<Table> tables,
+                final long version) {
+            this.tables = tables;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Skips tombstones and remembers long runs of the latest ones in {@link #deletedRanges}.
+     */
+    private final class LiveIterator implements Iterator<Record> {
+        private final Iterator<Cell> cells;
+        @Nullable
+        private final ByteBuffer to;
+        private final long version;
+        private final boolean latest;
+
+        @Nullable
+        private Cell next;
+        @Nullable
+        private ByteBuffer runStart;
+        private int run;
+
+        LiveIterator(
+                @NotNull final Iterator<Cell> cells,
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to,
+                final long version,
+                final boolean latest) {
+            this.cells = cells;
+            this.to = to;
+            this.version = version;
+            this.latest = latest;
+            // There is nothing between from and the first cell
+            this.runStart = from;
+            advance();
+        }
+
+        private void advance() {
+            while (cells.hasNext()) {
+                final Cell cell = cells.next();
+                if (!cell.isTombstone()) {
+                    endRun(cell.getKey());
+                    next = cell;
+                    return;
+                }
+                if (run++ == 0 && runStart == null) {
+                    runStart = cell.getKey();
+                }
+            }
+            // Nothing is known past the range bound
+            endRun(to);
+            next = null;
+        }
+
+        private void endRun(@Nullable final ByteBuffer end) {
+            if (latest && run >= DeletedRanges.MIN_TOMBSTONES && runStart != null) {
+                deletedRanges.add(version, runStart, end);
+            }
+            run = 0;
+            runStart = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (next == null) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+
+            final Record result = next.toRecord();
+            advance();
+            return result;
+        }
+    }
+
+    /**
+     * Stops after the cells returned reach the size limit, leaving the rest in the source.
+     *
+     * <p>All the versions of a key go to the same table.
+     */
+    private static final class SizeLimitedIterator implements Iterator<Cell> {
+        private final PeekingIterator<Cell> cells;
+        private long remaining;
+        @Nullable
+        private ByteBuffer last;
+
+        SizeLimitedIterator(
+                @NotNull final PeekingIterator<Cell> cells,
+                final long limit) {
+            this.cells = cells;
+            this.remaining = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cells.hasNext() && (remaining > 0 || cells.peek().getKey().equals(last));
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Size limit reached");
+            }
+
+            final Cell cell = cells.next();
+            remaining -= cell.sizeInBytes();
+            last = cell.getKey();
+            return cell;
+        }
+    }
 }
@@ -0,0 +1,518 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link MemTable} keeping both the data and the sorted index in direct memory arenas.
+ *
+ * <p>Keys and values are copied into large direct {@link ByteBuffer} chunks by bumping an allocation pointer.
+ * The index is a lock-free insert-only skip list whose nodes live in the same chunks and refer to each other
+ * by packed chunk number and offset, so no heap objects are kept per entry.
+ * The returned {@link Cell}s are slices of the chunks.
+ *
+ * <p>Node layout: newest value address, height, key size, {@code height} next node addresses and key bytes.
+ * Value layout: sequence number, address of the older value, value size ({@code -1} for a tombstone) and value
+ * bytes, so the versions of a key form a list sorted by sequence number in descending order.
+ * Addresses are updated through {@link VarHandle} CAS, everything else is written before the node is published.
+ *
+ * <p>The size of the table is the direct memory reserved by its chunks, including the unused chunk tails and
+ * the nodes allocated by writers which lost an insertion race to another one, so the table is full once
+ * the memory it really takes reaches the limit.
+ *
+ * <p>{@link RangeTombstone}s are few and stay on the heap.
+ */
+final class OffHeapMemTable implements MemTable {
+    private static final int MIN_CHUNK_SIZE = 1 << 12;
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+    private static final int CHUNKS_PER_LIMIT = 16;
+    private static final int MAX_CHUNKS = 1 << 16;
+    private static final int MAX_HEIGHT = 12;
+    private static final int TOMBSTONE = -1;
+
+    private static final int NODE_VALUE = 0;
+    private static final int NODE_HEIGHT = Long.BYTES;
+    private static final int NODE_KEY_SIZE = NODE_HEIGHT + Integer.BYTES;
+    private static final int NODE_NEXT = NODE_KEY_SIZE + Integer.BYTES;
+    private static final int VALUE_OLDER = Long.BYTES;
+    private static final int VALUE_SIZE = VALUE_OLDER + Long.BYTES;
+    private static final int VALUE_DATA = VALUE_SIZE + Integer.BYTES;
+
+    private static final VarHandle ADDRESS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final long generation;
+    private final long limit;
+    private final int chunkSize;
+    private final AtomicReferenceArray<ByteBuffer> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    private final Queue<RangeTombstone> rangeTombstones = new ConcurrentLinkedQueue<>();
+    private final long head;
+
+    private volatile Chunk current;
+    // Guarded by this
+    private int chunkCount;
+
+    /**
+     * Create a table which is full once its chunks take {@code limit} bytes.
+     */
+    OffHeapMemTable(
+            final long generation,
+            final long limit) {
+        this.generation = generation;
+        this.limit = limit;
+        // Small enough for a few chunks to fit into the limit
+        this.chunkSize = (int) Math.max(
+                MIN_CHUNK_SIZE,
+                Math.min(MAX_CHUNK_SIZE, Long.highestOneBit(limit / CHUNKS_PER_LIMIT)));
+        synchronized (this) {
+            this.current = newChunk(chunkSize);
+        }
+        this.head = allocateNode(ByteBuffer.allocate(0), MAX_HEIGHT, 0L);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> versions(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final long first = bounded(next(floor(from), 0), to);
+        return new Iterator<>() {
+            private long node = first;
+            private long value = first == 0L ? 0L : newest(first);
+
+            @Override
+            public boolean hasNext() {
+                return node != 0L;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("Next on exhausted memtable");
+                }
+
+                final Cell result = cell(node, value);
+                value = older(value);
+                if (value == 0L) {
+                    node = bounded(OffHeapMemTable.this.next(node, 0), to);
+                    value = node == 0L ? 0L : newest(node);
+                }
+                return result;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingVersions(@Nullable final ByteBuffer to) {
+        return new DescendingIterator(floor(to));
+    }
+
+    @Nullable
+    @Override
+    public Cell get(
+            @NotNull final ByteBuffer key,
+            final long snapshot) {
+        final long candidate = next(floor(key), 0);
+        if (candidate == 0L || compare(candidate, key) != 0) {
+            return null;
+        }
+
+        long value = newest(candidate);
+        while (value != 0L && sequence(value) > snapshot) {
+            value = older(value);
+        }
+        return value == 0L ? null : cell(candidate, value);
+    }
+
+    @NotNull
+    @Override
+    public Collection<RangeTombstone> rangeTombstones() {
+        return rangeTombstones;
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return next(head, 0) == 0L && rangeTombstones.isEmpty();
+    }
+
+    @Override
+    public boolean isFull() {
+        return sizeInBytes.get() >= limit;
+    }
+
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value,
+            final long sequence) {
+        put(key, allocateValue(value, sequence));
+    }
+
+    @Override
+    public void remove(
+            @NotNull final ByteBuffer key,
+            final long sequence) {
+        put(key, allocateValue(null, sequence));
+    }
+
+    @Override
+    public void removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence) {
+        final RangeTombstone tombstone = new RangeTombstone(from, to, sequence);
+        rangeTombstones.add(tombstone);
+        sizeInBytes.addAndGet(tombstone.sizeInBytes());
+    }
+
+    private void put(
+            @NotNull final ByteBuffer key,
+            final long value) {
+        final long[] preds = new long[MAX_HEIGHT];
+        final long[] succs = new long[MAX_HEIGHT];
+
+        // Link at the bottom level first, that makes the node visible
+        long node = 0L;
+        while (true) {
+            final long found = find(key, preds, succs);
+            if (found != 0L) {
+                // A node allocated before another writer inserted the key is abandoned, it stays in the size
+                setValue(found, value);
+                return;
+            }
+            if (node == 0L) {
+                node = allocateNode(key, randomHeight(), value);
+            }
+            ADDRESS.setVolatile(buffer(node), offset(node) + NODE_NEXT, succs[0]);
+            if (casNext(preds[0], 0, succs[0], node)) {
+                break;
+            }
+        }
+
+        // Then build the express lanes
+        final int height = height(node);
+        for (int level = 1; level < height; level++) {
+            while (true) {
+                ADDRESS.setVolatile(buffer(node), offset(node) + NODE_NEXT + level * Long.BYTES, succs[level]);
+                if (casNext(preds[level], level, succs[level], node)) {
+                    break;
+                }
+                find(key, preds, succs);
+            }
+        }
+    }
+
+    /**
+     * Link the {@code value} into the version list of the {@code node} keeping it sorted by sequence number.
+     */
+    private void setValue(
+            final long node,
+            final long value) {
+        final long sequence = sequence(value);
+        while (true) {
+            ByteBuffer buffer = buffer(node);
+            int offset = offset(node) + NODE_VALUE;
+            long current = (long) ADDRESS.getVolatile(buffer, offset);
+            while (current != 0L && sequence(current) > sequence) {
+                buffer = buffer(current);
+                offset = offset(current) + VALUE_OLDER;
+                current = (long) ADDRESS.getVolatile(buffer, offset);
+            }
+            ADDRESS.setVolatile(buffer(value), offset(value) + VALUE_OLDER, current);
+            if (ADDRESS.compareAndSet(buffer, offset, current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fill {@code preds} and {@code succs} with the nodes around {@code key} on every level.
+     *
+     * @return the node with the {@code key} or {@code 0} if none
+     */
+    private long find(
+            @NotNull final ByteBuffer key,
+            @NotNull final long[] preds,
+            @NotNull final long[] succs) {
+        long node = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != 0L && compare(next, key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+            preds[level] = node;
+            succs[level] = next;
+        }
+        return succs[0] != 0L && compare(succs[0], key) == 0 ? succs[0] : 0L;
+    }
+
+    /**
+     * Get the last node with key less than {@code key} or the head, the last node at all if {@code key} is null.
+     */
+    private long floor(@Nullable final ByteBuffer key) {
+        long node = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = next(node, level);
+            while (next != 0L && (key == null || compare(next, key) < 0)) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Get the {@code node} if its key is less than {@code to} or {@code 0} otherwise.
+     */
+    private long bounded(
+            final long node,
+            @Nullable final ByteBuffer to) {
+        return node == 0L || to == null || compare(node, to) < 0 ? node : 0L;
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (height < MAX_HEIGHT && random.nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    @NotNull
+    private ByteBuffer key(final long node) {
+        return Bytes.slice(buffer(node), keyOffset(node), buffer(node).getInt(offset(node) + NODE_KEY_SIZE));
+    }
+
+    @NotNull
+    private Cell cell(
+            final long node,
+            final long value) {
+        final ByteBuffer key = key(node);
+
+        final ByteBuffer valueBuffer = buffer(value);
+        final int valueOffset = offset(value);
+        final long sequence = valueBuffer.getLong(valueOffset);
+        final int size = valueBuffer.getInt(valueOffset + VALUE_SIZE);
+        if (size == TOMBSTONE) {
+            return Cell.tombstone(key, generation, sequence);
+        }
+        return Cell.of(key, Bytes.slice(valueBuffer, valueOffset + VALUE_DATA, size), generation, sequence);
+    }
+
+    private int compare(
+            final long node,
+            @NotNull final ByteBuffer key) {
+        final ByteBuffer buffer = buffer(node);
+        return Bytes.compare(buffer, keyOffset(node), buffer.getInt(offset(node) + NODE_KEY_SIZE), key);
+    }
+
+    private long next(
+            final long node,
+            final int level) {
+        return (long) ADDRESS.getVolatile(buffer(node), offset(node) + NODE_NEXT + level * Long.BYTES);
+    }
+
+    private boolean casNext(
+            final long node,
+            final int level,
+            final long expected,
+            final long update) {
+        return ADDRESS.compareAndSet(
+                buffer(node),
+                offset(node) + NODE_NEXT + level * Long.BYTES,
+                expected,
+                update);
+    }
+
+    private int height(final long node) {
+        return buffer(node).getInt(offset(node) + NODE_HEIGHT);
+    }
+
+    private int keyOffset(final long node) {
+        return offset(node) + NODE_NEXT + height(node) * Long.BYTES;
+    }
+
+    private long newest(final long node) {
+        return (long) ADDRESS.getVolatile(buffer(node), offset(node) + NODE_VALUE);
+    }
+
+    private long older(final long value) {
+        return (long) ADDRESS.getVolatile(buffer(value), offset(value) + VALUE_OLDER);
+    }
+
+    private long sequence(final long value) {
+        return buffer(value).getLong(offset(value));
+    }
+
+    private long allocateNode(
+            @NotNull final ByteBuffer key,
+            final int height,
+            final long value) {
+        final long node = allocate(NODE_NEXT + height * Long.BYTES + key.remaining());
+        final ByteBuffer buffer = buffer(node);
+        final int offset = offset(node);
+        ADDRESS.set(buffer, offset + NODE_VALUE, value);
+        buffer.putInt(offset + NODE_HEIGHT, height);
+        buffer.putInt(offset + NODE_KEY_SIZE, key.remaining());
+        for (int level = 0; level < height; level++) {
+            ADDRESS.set(buffer, offset + NODE_NEXT + level * Long.BYTES, 0L);
+        }
+        final ByteBuffer target = buffer.duplicate();
+        target.position(offset + NODE_NEXT + height * Long.BYTES);
+        target.put(key.duplicate());
+        return node;
+    }
+
+    private long allocateValue(
+            @Nullable final ByteBuffer value,
+            final long sequence) {
+        final long address = allocate(VALUE_DATA + (value == null ? 0 : value.remaining()));
+        final ByteBuffer buffer = buffer(address);
+        final int offset = offset(address);
+        buffer.putLong(offset, sequence);
+        ADDRESS.set(buffer, offset + VALUE_OLDER, 0L);
+        if (value == null) {
+            buffer.putInt(offset + VALUE_SIZE, TOMBSTONE);
+        } else {
+            buffer.putInt(offset + VALUE_SIZE, value.remaining());
+            final ByteBuffer target = buffer.duplicate();
+            target.position(offset + VALUE_DATA);
+            target.put(value.duplicate());
+        }
+        return address;
+    }
+
+    /**
+     * Reserve {@code size} bytes aligned to 8 so that addresses can be updated atomically.
+     *
+     * @return address of the reserved space
+     */
+    private long allocate(final int size) {
+        final int aligned = (size + Long.BYTES - 1) & -Long.BYTES;
+        while (true) {
+            final Chunk chunk = current;
+            final int position = chunk.position.getAndAdd(aligned);
+            if (position + aligned <= chunk.buffer.capacity()) {
+                return ((long) (chunk.index + 1) << 32) | position;
+            }
+
+            synchronized (this) {
+                if (current == chunk) {
+                    current = newChunk(Math.max(chunkSize, aligned));
+                }
+            }
+        }
+    }
+
+    @NotNull
+    private Chunk newChunk(final int size) {
+        assert Thread.holdsLock(this);
+
+        if (chunkCount == MAX_CHUNKS) {
+            throw new IllegalStateException("Memtable arena is exhausted");
+        }
+        final Chunk chunk = new Chunk(chunkCount++, ByteBuffer.allocateDirect(size));
+        chunks.set(chunk.index, chunk.buffer);
+        sizeInBytes.addAndGet(size);
+        return chunk;
+    }
+
+    @NotNull
+    private ByteBuffer buffer(final long address) {
+        return chunks.get((int) (address >>> 32) - 1);
+    }
+
+    private static int offset(final long address) {
+        return (int) address;
+    }
+
+    /**
+     * Walks the nodes backwards finding the predecessor of every node from the top,
+     * the versions of each node are collected to be returned from the oldest to the newest.
+     */
+    private final class DescendingIterator implements Iterator<Cell> {
+        private long node;
+        private long[] values = new long[4];
+        private int count;
+
+        DescendingIterator(final long last) {
+            this.node = last;
+            load();
+        }
+
+        private void load() {
+            count = 0;
+            if (node == head) {
+                return;
+            }
+
+            for (long value = newest(node); value != 0L; value = older(value)) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = value;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return count > 0;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted memtable");
+            }
+
+            final Cell result = cell(node, values[--count]);
+            if (count == 0) {
+                node = floor(result.getKey());
+                load();
+            }
+            return result;
+        }
+    }
+
+    private static final class Chunk {
+        private final int index;
+        private final ByteBuffer buffer;
+        private final AtomicInteger position = new AtomicInteger();
+
+        Chunk(
+                final int index,
+                @NotNull final ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
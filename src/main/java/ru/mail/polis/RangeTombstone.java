@@ -0,0 +1,80 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Deletion of all the keys from {@link #from()} inclusive to {@link #to()} exclusive written before
+ * its {@link #sequence()} number, made by {@link DAO#removeRange(ByteBuffer, ByteBuffer)}.
+ */
+final class RangeTombstone {
+    private final ByteBuffer from;
+    private final ByteBuffer to;
+    private final long sequence;
+
+    RangeTombstone(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence) {
+        this.from = from;
+        this.to = to;
+        this.sequence = sequence;
+    }
+
+    @NotNull
+    ByteBuffer from() {
+        return from.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    ByteBuffer to() {
+        return to.asReadOnlyBuffer();
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Check whether the {@code key} is in the range.
+     */
+    boolean contains(@NotNull final ByteBuffer key) {
+        return from.compareTo(key) <= 0 && key.compareTo(to) < 0;
+    }
+
+    /**
+     * Check whether the range intersects the keys from {@code lo} inclusive to {@code hi} inclusive.
+     */
+    boolean overlaps(
+            @NotNull final ByteBuffer lo,
+            @NotNull final ByteBuffer hi) {
+        return from.compareTo(hi) <= 0 && lo.compareTo(to) < 0;
+    }
+
+    /**
+     * Get the part of the range from {@code lo} inclusive to {@code hi} exclusive or till the end
+     * if {@code hi} is {@code null}, {@code null} if there is no such part.
+     */
+    @Nullable
+    RangeTombstone clip(
+            @NotNull final ByteBuffer lo,
+            @Nullable final ByteBuffer hi) {
+        final ByteBuffer clippedFrom = from.compareTo(lo) < 0 ? lo : from;
+        final ByteBuffer clippedTo = hi != null && hi.compareTo(to) < 0 ? hi : to;
+        if (clippedFrom.compareTo(clippedTo) >= 0) {
+            return null;
+        }
+        return clippedFrom == from && clippedTo == to ? this : new RangeTombstone(clippedFrom, clippedTo, sequence);
+    }
+
+    long sizeInBytes() {
+        return from.remaining() + to.remaining() + Long.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + from + ", " + to + ")@" + sequence;
+    }
+}
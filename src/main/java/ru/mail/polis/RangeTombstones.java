@@ -0,0 +1,196 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * {@link RangeTombstone}s cut into non-overlapping fragments, each knowing the sequence numbers of all
+ * the tombstones covering it, so that a key is checked with a single lookup.
+ */
+final class RangeTombstones {
+    static final RangeTombstones EMPTY = new RangeTombstones(new TreeMap<>());
+
+    // Fragment start to fragment
+    private final NavigableMap<ByteBuffer, Fragment> fragments;
+
+    private RangeTombstones(@NotNull final NavigableMap<ByteBuffer, Fragment> fragments) {
+        this.fragments = fragments;
+    }
+
+    /**
+     * Fragment the {@code tombstones} with sequence numbers not greater than {@code snapshot}.
+     */
+    @NotNull
+    static RangeTombstones of(
+            @NotNull final Iterable<RangeTombstone> tombstones,
+            final long snapshot) {
+        final NavigableMap<ByteBuffer, List<RangeTombstone>> starts = new TreeMap<>();
+        final NavigableMap<ByteBuffer, List<RangeTombstone>> ends = new TreeMap<>();
+        for (final RangeTombstone tombstone : tombstones) {
+            if (tombstone.sequence() <= snapshot) {
+                starts.computeIfAbsent(tombstone.from(), k -> new ArrayList<>()).add(tombstone);
+                ends.computeIfAbsent(tombstone.to(), k -> new ArrayList<>()).add(tombstone);
+            }
+        }
+        if (starts.isEmpty()) {
+            return EMPTY;
+        }
+
+        // Sweep the boundaries keeping the multiset of the sequence numbers covering the current fragment
+        final NavigableMap<ByteBuffer, Fragment> fragments = new TreeMap<>();
+        final NavigableMap<Long, Integer> active = new TreeMap<>();
+        final NavigableSet<ByteBuffer> boundaries = new TreeSet<>(starts.keySet());
+        boundaries.addAll(ends.keySet());
+        for (final ByteBuffer boundary : boundaries) {
+            for (final RangeTombstone ended : ends.getOrDefault(boundary, List.of())) {
+                active.computeIfPresent(ended.sequence(), (s, count) -> count == 1 ? null : count - 1);
+            }
+            for (final RangeTombstone started : starts.getOrDefault(boundary, List.of())) {
+                active.merge(started.sequence(), 1, Integer::sum);
+            }
+            if (!active.isEmpty()) {
+                final long[] sequences = active.keySet().stream().mapToLong(Long::longValue).toArray();
+                fragments.put(boundary, new Fragment(boundaries.higher(boundary), sequences));
+            }
+        }
+        return new RangeTombstones(fragments);
+    }
+
+    boolean isEmpty() {
+        return fragments.isEmpty();
+    }
+
+    @Nullable
+    private Fragment fragment(@NotNull final ByteBuffer key) {
+        final Map.Entry<ByteBuffer, Fragment> entry = fragments.floorEntry(key);
+        if (entry == null || entry.getValue().end.compareTo(key) <= 0) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Check whether the version of the {@code key} with the {@code sequence} number is deleted.
+     */
+    boolean covers(
+            @NotNull final ByteBuffer key,
+            final long sequence) {
+        final Fragment fragment = fragment(key);
+        return fragment != null && fragment.above(sequence) >= 0;
+    }
+
+    /**
+     * Check whether the version of the {@code key} with the {@code sequence} number is deleted for all
+     * the open {@code snapshots} and all the reads to come, so it can be dropped.
+     *
+     * @param snapshots sorted sequence numbers of the open snapshots
+     */
+    boolean hides(
+            @NotNull final ByteBuffer key,
+            final long sequence,
+            @NotNull final long[] snapshots) {
+        final Fragment fragment = fragment(key);
+        if (fragment == null) {
+            return false;
+        }
+        final long deleted = fragment.above(sequence);
+        return deleted >= 0 && !seenBetween(snapshots, sequence, deleted);
+    }
+
+    /**
+     * Check whether all the versions with sequence numbers up to {@code sequence} of all the keys
+     * from {@code from} inclusive to {@code to} exclusive are deleted, so they needn't be read.
+     */
+    boolean covers(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence) {
+        return deleted(from, to, sequence) >= 0;
+    }
+
+    /**
+     * Check whether all the versions with sequence numbers up to {@code sequence} of all the keys
+     * from {@code from} inclusive to {@code to} exclusive are deleted for all the open {@code snapshots}
+     * and all the reads to come, so they can be dropped without reading.
+     *
+     * @param snapshots sorted sequence numbers of the open snapshots
+     */
+    boolean hides(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence,
+            @NotNull final long[] snapshots) {
+        final long deleted = deleted(from, to, sequence);
+        // The versions may be as old as the oldest snapshot
+        return deleted >= 0 && (snapshots.length == 0 || snapshots[0] >= deleted);
+    }
+
+    /**
+     * Get the greatest of the sequence numbers deleting the versions up to {@code sequence} of the keys
+     * from {@code from} inclusive to {@code to} exclusive or {@code -1} if some of them are not deleted.
+     */
+    private long deleted(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to,
+            final long sequence) {
+        ByteBuffer position = from;
+        long result = 0;
+        while (position.compareTo(to) < 0) {
+            final Fragment fragment = fragment(position);
+            if (fragment == null) {
+                return -1;
+            }
+            final long above = fragment.above(sequence);
+            if (above < 0) {
+                return -1;
+            }
+            result = Math.max(result, above);
+            position = fragment.end;
+        }
+        return result;
+    }
+
+    /**
+     * Check whether a snapshot from {@code from} inclusive to {@code to} exclusive is open.
+     */
+    private static boolean seenBetween(
+            @NotNull final long[] snapshots,
+            final long from,
+            final long to) {
+        final int i = Arrays.binarySearch(snapshots, from);
+        final int next = i >= 0 ? i : -i - 1;
+        return next < snapshots.length && snapshots[next] < to;
+    }
+
+    private static final class Fragment {
+        private final ByteBuffer end;
+        // Sorted
+        private final long[] sequences;
+
+        Fragment(
+                @NotNull final ByteBuffer end,
+                @NotNull final long[] sequences) {
+            this.end = end;
+            this.sequences = sequences;
+        }
+
+        /**
+         * Get the smallest sequence number greater than {@code sequence} or {@code -1} if none.
+         */
+        long above(final long sequence) {
+            final int i = Arrays.binarySearch(sequences, sequence);
+            final int next = i >= 0 ? i + 1 : -i - 1;
+            return next < sequences.length ? sequences[next] : -1;
+        }
+    }
+}
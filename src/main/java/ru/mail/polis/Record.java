@@ -31,6 +31,14 @@ public class Record implements Comparable<Record> {
         return key.asReadOnlyBuffer();
     }
 
+    /**
+     * Get the key itself for comparisons without a read-only copy.
+     */
+    @NotNull
+    ByteBuffer key() {
+        return key;
+    }
+
     public ByteBuffer getValue() {
         return value.asReadOnlyBuffer();
     }
@@ -0,0 +1,361 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the latest values of hot keys in front of {@link MyDAO#get(ByteBuffer)}, bounded by a byte budget.
+ *
+ * <p>Absent keys are cached as negative entries. Every shard is a segmented LRU: new entries go to the probation
+ * segment and move to the protected one on a second hit. When full, a shard admits a new entry only if
+ * a TinyLFU frequency sketch estimates it to be accessed more often than the probation victim,
+ * so a scan of cold keys doesn't wash the hot ones out.
+ *
+ * <p>Writers {@link #invalidate} the keys or the ranges they change after applying them.
+ * Every shard keeps its keys sorted too, so a range is invalidated without walking the entries outside it.
+ * A reader takes a {@link #stamp} before looking a key up and {@link #put} discards the result if the shard
+ * has been invalidated since, so a value read before a write is never cached after it.
+ * Flushes and compactions don't change the latest values and leave the cache as is.
+ */
+final class RowCache {
+    private static final int SHARDS = 16;
+    /**
+     * Estimated bytes of the map node, the sorted set node and the entry besides the key and the value.
+     */
+    private static final int ENTRY_OVERHEAD = 136;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Shard[] shards;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    RowCache(final long capacity) {
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacity / SHARDS);
+        }
+    }
+
+    /**
+     * Cached value of a key or its absence.
+     */
+    static final class Entry {
+        private final ByteBuffer key;
+        // Read-only, so a hit doesn't allocate
+        @Nullable
+        private final ByteBuffer value;
+        private final long weight;
+
+        private Entry(
+                @NotNull final ByteBuffer key,
+                @Nullable final ByteBuffer value,
+                final long weight) {
+            this.key = key;
+            this.value = value == null ? null : value.asReadOnlyBuffer();
+            this.weight = weight;
+        }
+
+        boolean isAbsent() {
+            return value == null;
+        }
+
+        /**
+         * Get the cached value or {@link NoSuchElementException} if the key is cached as absent.
+         *
+         * <p>Every hit returns the same read-only buffer, callers must not change its position or limit.
+         */
+        @NotNull
+        ByteBuffer value() throws NoSuchElementException {
+            if (value == null) {
+                throw new NoSuchElementException("Not found");
+            }
+            return value;
+        }
+    }
+
+    @NotNull
+    private Shard shard(final int hash) {
+        return shards[(hash & Integer.MAX_VALUE) % SHARDS];
+    }
+
+    /**
+     * Get the entry of the {@code key} or {@code null} on a miss.
+     */
+    @Nullable
+    Entry get(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode();
+        final Entry entry = shard(hash).get(key, hash);
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Get the invalidation stamp of the shard of the {@code key} to pass to {@link #put} later.
+     */
+    long stamp(@NotNull final ByteBuffer key) {
+        return shard(key.hashCode()).stamp;
+    }
+
+    /**
+     * Cache the {@code value} of the {@code key} or its absence if the {@code value} is {@code null},
+     * unless the shard has been invalidated since the {@code stamp} was taken.
+     */
+    void put(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value,
+            final long stamp) {
+        final int hash = key.hashCode();
+        final long weight = ENTRY_OVERHEAD + key.remaining() + (value == null ? 0 : value.remaining());
+        shard(hash).put(key, value, weight, hash, stamp);
+    }
+
+    /**
+     * Drop the entry of the {@code key}, must be called after the {@code key} is changed.
+     */
+    void invalidate(@NotNull final ByteBuffer key) {
+        shard(key.hashCode()).invalidate(key);
+    }
+
+    /**
+     * Drop the entries of the keys from {@code from} inclusive to {@code to} exclusive,
+     * must be called after the range is changed.
+     */
+    void invalidate(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        for (final Shard shard : shards) {
+            shard.invalidate(from, to);
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    long sizeInBytes() {
+        long result = 0;
+        for (final Shard shard : shards) {
+            result += shard.sizeInBytes();
+        }
+        return result;
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate());
+        return result.flip();
+    }
+
+    private final class Shard {
+        private final long capacity;
+        private final long protectedCapacity;
+        private final Map<ByteBuffer, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<ByteBuffer, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+        // The keys of both segments
+        private final NavigableSet<ByteBuffer> keys = new TreeSet<>();
+        private final FrequencySketch sketch;
+
+        private volatile long stamp;
+        private long probationSize;
+        private long protectedSize;
+
+        Shard(final long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * PROTECTED_PERCENT / 100;
+            this.sketch = new FrequencySketch(capacity / ENTRY_OVERHEAD);
+        }
+
+        synchronized Entry get(
+                @NotNull final ByteBuffer key,
+                final int hash) {
+            sketch.increment(hash);
+            final Entry hot = protect.get(key);
+            if (hot != null) {
+                return hot;
+            }
+
+            final Entry entry = probation.remove(key);
+            if (entry == null) {
+                return null;
+            }
+
+            // Promote on the second hit, demoting the least recently used protected entries back to probation
+            probationSize -= entry.weight;
+            protect.put(entry.key, entry);
+            protectedSize += entry.weight;
+            final Iterator<Map.Entry<ByteBuffer, Entry>> lru = protect.entrySet().iterator();
+            while (protectedSize > protectedCapacity) {
+                final Map.Entry<ByteBuffer, Entry> demoted = lru.next();
+                lru.remove();
+                protectedSize -= demoted.getValue().weight;
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationSize += demoted.getValue().weight;
+            }
+            return entry;
+        }
+
+        synchronized void put(
+                @NotNull final ByteBuffer key,
+                @Nullable final ByteBuffer value,
+                final long weight,
+                final int hash,
+                final long stamp) {
+            if (stamp != this.stamp || weight > capacity || protect.containsKey(key) || probation.containsKey(key)) {
+                return;
+            }
+
+            final int frequency = sketch.frequency(hash);
+            while (probationSize + protectedSize + weight > capacity) {
+                final Map<ByteBuffer, Entry> segment = probation.isEmpty() ? protect : probation;
+                final Map.Entry<ByteBuffer, Entry> victim = segment.entrySet().iterator().next();
+                if (frequency <= sketch.frequency(victim.getKey().hashCode())) {
+                    return;
+                }
+                segment.remove(victim.getKey());
+                keys.remove(victim.getKey());
+                if (segment == probation) {
+                    probationSize -= victim.getValue().weight;
+                } else {
+                    protectedSize -= victim.getValue().weight;
+                }
+                evictions.increment();
+            }
+
+            // The buffers may be reused by the caller or backed by a table about to be removed
+            final Entry entry = new Entry(copy(key), value == null ? null : copy(value), weight);
+            probation.put(entry.key, entry);
+            keys.add(entry.key);
+            probationSize += weight;
+        }
+
+        synchronized void invalidate(@NotNull final ByteBuffer key) {
+            stamp++;
+            keys.remove(key);
+            final Entry hot = protect.remove(key);
+            if (hot != null) {
+                protectedSize -= hot.weight;
+            }
+            final Entry entry = probation.remove(key);
+            if (entry != null) {
+                probationSize -= entry.weight;
+            }
+        }
+
+        synchronized void invalidate(
+                @NotNull final ByteBuffer from,
+                @NotNull final ByteBuffer to) {
+            stamp++;
+            if (from.compareTo(to) >= 0) {
+                return;
+            }
+
+            final Iterator<ByteBuffer> range = keys.subSet(from, true, to, false).iterator();
+            while (range.hasNext()) {
+                final ByteBuffer key = range.next();
+                range.remove();
+                final Entry hot = protect.remove(key);
+                if (hot != null) {
+                    protectedSize -= hot.weight;
+                }
+                final Entry entry = probation.remove(key);
+                if (entry != null) {
+                    probationSize -= entry.weight;
+                }
+            }
+        }
+
+        synchronized long sizeInBytes() {
+            return probationSize + protectedSize;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit access counters halved periodically, so that the estimates favour recent accesses.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int MAX_COUNT = 15;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+
+        private int additions;
+
+        /**
+         * Create a sketch with a word of 16 counters per expected entry to keep collisions rare.
+         */
+        FrequencySketch(final long entries) {
+            final int words = Integer.highestOneBit((int) Math.min(Math.max(entries, 2), 1 << 20) - 1) << 1;
+            final int counters = words * 16;
+            this.table = new long[words];
+            this.mask = counters - 1;
+            this.sampleSize = 10 * counters;
+        }
+
+        private int counter(
+                final int hash,
+                final int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        /**
+         * Get the estimated number of recent accesses, at most {@code 15}.
+         */
+        int frequency(final int hash) {
+            int result = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int counter = counter(hash, i);
+                result = Math.min(result, (int) (table[counter >>> 4] >>> ((counter & 15) << 2)) & MAX_COUNT);
+            }
+            return result;
+        }
+
+        void increment(final int hash) {
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int counter = counter(hash, i);
+                final int shift = (counter & 15) << 2;
+                if (((table[counter >>> 4] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                    table[counter >>> 4] += 1L << shift;
+                }
+            }
+            if (++additions == sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+    }
+}
@@ -0,0 +1,793 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiPredicate;
+
+/**
+ * Immutable on-disk {@link Table}.
+ *
+ * <p>File layout: data {@link Block}s of about {@link Config#blockSize()} bytes each, the {@link BloomFilter},
+ * the {@link RangeTombstone}s, the sparse index, the last key and the footer.
+ * Every data block is prefixed by its {@link Codec} id and uncompressed size.
+ * The index is a block of entries, one per data block: block offset, block size, first key size and first key bytes.
+ * Range tombstones are stored as their count followed by sequence number, start size, start bytes, end size
+ * and end bytes of each one.
+ * The footer holds index offset and size, filter offset and size, range tombstones offset and size,
+ * cell and tombstone counts, the data generation, the greatest sequence number, the compaction level,
+ * the last key size and the format magic.
+ * All the versions of a key are kept in the same data block.
+ *
+ * <p>The file is read through a {@link MappedFile}: the index is binary searched in place and data blocks are
+ * served via the shared {@link BlockCache}. Uncompressed blocks are cached as slices of the mapping, so keys and values
+ * of the returned {@link Cell}s are not heap copies, compressed ones are cached decompressed.
+ * A table opened with known key bounds reads its index and range tombstones on first use.
+ */
+final class SSTable implements Table, Closeable {
+    static final String SUFFIX = ".db";
+    static final String TEMP = ".tmp";
+
+    /**
+     * Orders tables from the newest to the oldest data: by level, then by data generation,
+     * then compaction results before the tables they were merged from.
+     */
+    static final Comparator<SSTable> NEWEST_FIRST =
+            Comparator.comparingInt(SSTable::level)
+                    .thenComparing(Comparator.comparingLong(SSTable::dataGeneration).reversed())
+                    .thenComparing(Comparator.comparingLong(SSTable::generation).reversed());
+
+    private static final int MAGIC = 0x4C534D08;
+    private static final int BLOCK_HEADER = Byte.BYTES + Integer.BYTES;
+    private static final int FOOTER = 7 * Long.BYTES + 6 * Integer.BYTES;
+    private static final int INDEX_ENTRY_HEADER = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final File file;
+    private final long generation;
+    private final MappedFile mapped;
+    private final BlockCache cache;
+    private final BloomFilter filter;
+    private final long indexOffset;
+    private final int indexSize;
+    private final long rangesOffset;
+    private final int rangesSize;
+    private final int lastKeySize;
+    private final long cells;
+    private final long tombstones;
+    private final long dataGeneration;
+    private final long maxSequence;
+    private final int level;
+    // Key bounds of both the cells and the range tombstones
+    @Nullable
+    private final ByteBuffer lowest;
+    @Nullable
+    private final ByteBuffer highest;
+    // Read on demand, reading it twice concurrently is harmless
+    @Nullable
+    private volatile Index index;
+
+    /**
+     * Open the table reading its index and range tombstones to find its key bounds.
+     */
+    SSTable(
+            @NotNull final File file,
+            final long generation,
+            @NotNull final BlockCache cache) throws IOException {
+        this(file, generation, cache, false, null, null);
+    }
+
+    /**
+     * Open the table with key bounds known beforehand, e.g. from its {@link Manifest} entry,
+     * so that its index and range tombstones are not read until needed.
+     *
+     * @param lowest the smallest key or range tombstone start, {@code null} for an empty table
+     * @param highest the largest key or range tombstone end, {@code null} for an empty table
+     */
+    SSTable(
+            @NotNull final File file,
+            final long generation,
+            @NotNull final BlockCache cache,
+            @Nullable final ByteBuffer lowest,
+            @Nullable final ByteBuffer highest) throws IOException {
+        this(file, generation, cache, true, lowest, highest);
+    }
+
+    private SSTable(
+            @NotNull final File file,
+            final long generation,
+            @NotNull final BlockCache cache,
+            final boolean bounded,
+            @Nullable final ByteBuffer lowest,
+            @Nullable final ByteBuffer highest) throws IOException {
+        this.file = file;
+        this.generation = generation;
+        this.cache = cache;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            this.mapped = new MappedFile(channel);
+        }
+
+        final long size = mapped.size();
+        if (size < FOOTER || mapped.getInt(size - Integer.BYTES) != MAGIC) {
+            throw new IOException("Not a table: " + file);
+        }
+        final ByteBuffer footer = mapped.slice(size - FOOTER, FOOTER);
+        this.indexOffset = footer.getLong();
+        this.indexSize = footer.getInt();
+        final long filterOffset = footer.getLong();
+        final int filterSize = footer.getInt();
+        this.rangesOffset = footer.getLong();
+        this.rangesSize = footer.getInt();
+        this.cells = footer.getLong();
+        this.tombstones = footer.getLong();
+        this.dataGeneration = footer.getLong();
+        this.maxSequence = footer.getLong();
+        this.level = footer.getInt();
+        this.lastKeySize = footer.getInt();
+        if (indexOffset < 0
+                || lastKeySize < 0
+                || indexOffset + indexSize + lastKeySize != size - FOOTER
+                || filterOffset + filterSize != rangesOffset
+                || rangesOffset + rangesSize != indexOffset) {
+            throw new IOException("Corrupted table: " + file);
+        }
+        this.filter = new BloomFilter(mapped.slice(filterOffset, filterSize));
+
+        if (bounded) {
+            this.lowest = lowest;
+            this.highest = highest;
+        } else {
+            final Index read = readIndex();
+            this.index = read;
+            this.lowest = read.lowest;
+            this.highest = read.highest;
+        }
+    }
+
+    @NotNull
+    private Index index() {
+        Index result = index;
+        if (result == null) {
+            try {
+                result = readIndex();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index = result;
+        }
+        return result;
+    }
+
+    @NotNull
+    private Index readIndex() throws IOException {
+        final int blocks = mapped.getInt(indexOffset + indexSize - Integer.BYTES);
+        final long offsets = indexOffset + indexSize - Integer.BYTES - (long) blocks * Integer.BYTES;
+        if (blocks < 0 || offsets < indexOffset) {
+            throw new IOException("Corrupted index: " + file);
+        }
+        return new Index(
+                blocks,
+                offsets,
+                mapped.slice(indexOffset + indexSize, lastKeySize),
+                readRangeTombstones(mapped.slice(rangesOffset, rangesSize), file));
+    }
+
+    @NotNull
+    private static List<RangeTombstone> readRangeTombstones(
+            @NotNull final ByteBuffer data,
+            @NotNull final File file) throws IOException {
+        try {
+            final int count = data.getInt();
+            final List<RangeTombstone> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final long sequence = data.getLong();
+                final ByteBuffer from = readKey(data);
+                final ByteBuffer to = readKey(data);
+                result.add(new RangeTombstone(from, to, sequence));
+            }
+            return List.copyOf(result);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted range tombstones: " + file, e);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer readKey(@NotNull final ByteBuffer data) {
+        final int size = data.getInt();
+        final ByteBuffer result = Bytes.slice(data, data.position(), size);
+        data.position(data.position() + size);
+        return result;
+    }
+
+    /**
+     * Write {@code cells} sorted by {@link Cell#VERSION_COMPARATOR} to {@code file} and sync it to disk.
+     *
+     * @param config block size, restart interval, codec and filter settings
+     * @param dataGeneration generation of the newest {@link MemTable} the {@code cells} come from
+     * @param level compaction level of the table
+     */
+    static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final Config config,
+            final long dataGeneration,
+            final int level) throws IOException {
+        write(file, cells, config, dataGeneration, level, List.of());
+    }
+
+    /**
+     * Write {@code cells} sorted by {@link Cell#VERSION_COMPARATOR} and {@code rangeTombstones} to {@code file}
+     * and sync it to disk.
+     */
+    static void write(
+            @NotNull final File file,
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final Config config,
+            final long dataGeneration,
+            final int level,
+            @NotNull final Collection<RangeTombstone> rangeTombstones) throws IOException {
+        final int blockSize = config.blockSize();
+        final Codec.Kind codec = config.codec();
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            final Block.Writer block = new Block.Writer(blockSize, config.restartInterval());
+            final BlockBuilder index = new BlockBuilder(blockSize);
+            ByteBuffer firstKey = null;
+            ByteBuffer lastKey = null;
+            long offset = 0;
+            long count = 0;
+            long tombstones = 0;
+            long maxSequence = 0;
+            int keys = 0;
+            long[] hashes = new long[1024];
+            while (cells.hasNext()) {
+                final Cell cell = cells.next();
+                final boolean newKey = !cell.getKey().equals(lastKey);
+                if (newKey && block.sizeInBytes() >= blockSize) {
+                    offset += writeBlock(channel, block, codec, index, offset, firstKey);
+                }
+                if (block.isEmpty()) {
+                    firstKey = cell.getKey();
+                }
+                block.append(cell);
+                lastKey = cell.getKey();
+                if (newKey) {
+                    if (keys == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, keys * 2);
+                    }
+                    hashes[keys++] = BloomFilter.hash(cell.getKey());
+                }
+                count++;
+                if (cell.isTombstone()) {
+                    tombstones++;
+                }
+                maxSequence = Math.max(maxSequence, cell.getSequence());
+            }
+            if (!block.isEmpty()) {
+                offset += writeBlock(channel, block, codec, index, offset, firstKey);
+            }
+
+            final ByteBuffer filter = BloomFilter.build(hashes, keys, config.bloomBitsPerKey());
+            final long filterOffset = offset;
+            final int filterSize = filter.remaining();
+            writeFully(channel, filter);
+            offset += filterSize;
+
+            int rangesSize = Integer.BYTES;
+            for (final RangeTombstone tombstone : rangeTombstones) {
+                rangesSize += Long.BYTES + Integer.BYTES + tombstone.from().remaining()
+                        + Integer.BYTES + tombstone.to().remaining();
+                maxSequence = Math.max(maxSequence, tombstone.sequence());
+            }
+            final ByteBuffer ranges = ByteBuffer.allocate(rangesSize);
+            ranges.putInt(rangeTombstones.size());
+            for (final RangeTombstone tombstone : rangeTombstones) {
+                ranges.putLong(tombstone.sequence());
+                ranges.putInt(tombstone.from().remaining());
+                ranges.put(tombstone.from());
+                ranges.putInt(tombstone.to().remaining());
+                ranges.put(tombstone.to());
+            }
+            final long rangesOffset = offset;
+            writeFully(channel, ranges.flip());
+            offset += rangesSize;
+
+            final ByteBuffer indexData = index.finish();
+            final int indexSize = indexData.remaining();
+            writeFully(channel, indexData);
+            final int lastKeySize = lastKey == null ? 0 : lastKey.remaining();
+            if (lastKey != null) {
+                writeFully(channel, lastKey.duplicate());
+            }
+
+            final ByteBuffer footer = ByteBuffer.allocate(FOOTER);
+            footer.putLong(offset);
+            footer.putInt(indexSize);
+            footer.putLong(filterOffset);
+            footer.putInt(filterSize);
+            footer.putLong(rangesOffset);
+            footer.putInt(rangesSize);
+            footer.putLong(count);
+            footer.putLong(tombstones);
+            footer.putLong(dataGeneration);
+            footer.putLong(maxSequence);
+            footer.putInt(level);
+            footer.putInt(lastKeySize);
+            footer.putInt(MAGIC);
+            writeFully(channel, footer.flip());
+
+            channel.force(false);
+        }
+    }
+
+    private static int writeBlock(
+            @NotNull final FileChannel channel,
+            @NotNull final Block.Writer block,
+            @NotNull final Codec.Kind codec,
+            @NotNull final BlockBuilder index,
+            final long offset,
+            @NotNull final ByteBuffer firstKey) throws IOException {
+        final ByteBuffer raw = block.finish();
+        final int rawSize = raw.remaining();
+        Codec.Kind stored = Codec.Kind.NONE;
+        ByteBuffer data = raw;
+        if (codec.codec() != null) {
+            final ByteBuffer compressed = codec.codec().compress(raw);
+            // Keep incompressible blocks as they are
+            if (compressed.remaining() < rawSize) {
+                stored = codec;
+                data = compressed;
+            }
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+        header.put(stored.id());
+        header.putInt(rawSize);
+        final int size = BLOCK_HEADER + data.remaining();
+        writeFully(channel, header.flip());
+        writeFully(channel, data);
+        block.reset();
+
+        index.startEntry();
+        index.putLong(offset);
+        index.putInt(size);
+        index.putInt(firstKey.remaining());
+        index.put(firstKey);
+        return size;
+    }
+
+    private static void writeFully(
+            @NotNull final FileChannel channel,
+            @NotNull final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> versions(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        return versions(from, to, null);
+    }
+
+    /**
+     * Get {@link Iterator} of the versions like {@link #versions(ByteBuffer, ByteBuffer)} does, not reading
+     * the data blocks whose keys from the first one inclusive to the next block's first one exclusive
+     * are {@code skipped}.
+     */
+    @NotNull
+    Iterator<Cell> versions(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @Nullable final BiPredicate<ByteBuffer, ByteBuffer> skipped) throws IOException {
+        final Index index = index();
+        if (index.blocks == 0 || to != null && (from.compareTo(to) >= 0 || to.compareTo(index.firstKey) <= 0)) {
+            return Iters.empty();
+        }
+        return new CellIterator(index, from, to, skipped);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> descendingVersions(@Nullable final ByteBuffer to) throws IOException {
+        final Index index = index();
+        if (index.blocks == 0 || to != null && to.compareTo(index.firstKey) <= 0) {
+            return Iters.empty();
+        }
+        return new DescendingCellIterator(index, to);
+    }
+
+    @Override
+    public boolean mightContain(final long hash) {
+        return filter.mightContain(hash);
+    }
+
+    @Nullable
+    @Override
+    public Cell get(
+            @NotNull final ByteBuffer key,
+            final long snapshot) throws IOException {
+        final Index index = index();
+        if (index.blocks == 0 || key.compareTo(index.firstKey) < 0 || key.compareTo(index.lastKey) > 0) {
+            return null;
+        }
+
+        return index.block(index.blockFor(key)).get(key, generation, snapshot);
+    }
+
+    /**
+     * Look the keys up block by block, so that a block holding several of them is read once.
+     */
+    @Override
+    public void get(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final BitSet candidates,
+            final long snapshot,
+            @NotNull final Cell[] found) throws IOException {
+        final Index index = index();
+        if (index.blocks == 0) {
+            return;
+        }
+
+        int blockIndex = -1;
+        Block block = null;
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            final ByteBuffer key = keys.get(i);
+            if (key.compareTo(index.firstKey) < 0) {
+                continue;
+            }
+            if (key.compareTo(index.lastKey) > 0) {
+                return;
+            }
+            final int next = index.blockFor(key);
+            if (next != blockIndex) {
+                blockIndex = next;
+                block = index.block(blockIndex);
+            }
+            found[i] = block.get(key, generation, snapshot);
+        }
+    }
+
+    @Override
+    public long generation() {
+        return generation;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return mapped.size();
+    }
+
+    long cellCount() {
+        return cells;
+    }
+
+    long tombstoneCount() {
+        return tombstones;
+    }
+
+    /**
+     * Get generation of the newest {@link MemTable} whose data the table holds.
+     */
+    long dataGeneration() {
+        return dataGeneration;
+    }
+
+    /**
+     * Get the greatest sequence number of the cells.
+     */
+    long maxSequence() {
+        return maxSequence;
+    }
+
+    /**
+     * Get the compaction level, {@code 0} for flushed {@link MemTable}s.
+     */
+    int level() {
+        return level;
+    }
+
+    /**
+     * Get the smallest key or range tombstone start or {@code null} if the table is empty.
+     */
+    @Nullable
+    ByteBuffer firstKey() {
+        return lowest == null ? null : lowest.asReadOnlyBuffer();
+    }
+
+    /**
+     * Get the largest key or range tombstone end or {@code null} if the table is empty.
+     */
+    @Nullable
+    ByteBuffer lastKey() {
+        return highest == null ? null : highest.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    @Override
+    public List<RangeTombstone> rangeTombstones() {
+        return index().rangeTombstones;
+    }
+
+    int blockCount() {
+        return index().blocks;
+    }
+
+    /**
+     * Get the first key of the {@code i}-th data block as stored in the index.
+     */
+    @NotNull
+    ByteBuffer blockKey(final int i) {
+        return index().blockKey(i);
+    }
+
+    /**
+     * Check whether the table may hold keys or range tombstones from {@code from} to {@code to} inclusive.
+     */
+    boolean overlaps(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        return lowest != null && lowest.compareTo(to) <= 0 && highest.compareTo(from) >= 0;
+    }
+
+    @Override
+    public void close() {
+        // Mapping is released by GC as soon as the last cell referencing it is gone
+        cache.invalidate(generation);
+    }
+
+    @NotNull
+    private static Block load(@NotNull final ByteBuffer stored) throws IOException {
+        final Codec codec = Codec.Kind.of(stored.get(0)).codec();
+        final int rawSize = stored.getInt(Byte.BYTES);
+        final ByteBuffer data = Bytes.slice(stored, BLOCK_HEADER, stored.limit() - BLOCK_HEADER);
+        return new Block(codec == null ? data : codec.decompress(data, rawSize));
+    }
+
+    /**
+     * The sparse index and the range tombstones of the table.
+     */
+    private final class Index {
+        final int blocks;
+        // Offset of the index entry offsets
+        private final long offsets;
+        @Nullable
+        final ByteBuffer firstKey;
+        @Nullable
+        final ByteBuffer lastKey;
+        final List<RangeTombstone> rangeTombstones;
+        @Nullable
+        final ByteBuffer lowest;
+        @Nullable
+        final ByteBuffer highest;
+
+        Index(
+                final int blocks,
+                final long offsets,
+                @NotNull final ByteBuffer lastKey,
+                @NotNull final List<RangeTombstone> rangeTombstones) {
+            this.blocks = blocks;
+            this.offsets = offsets;
+            this.firstKey = blocks == 0 ? null : blockKey(0);
+            this.lastKey = blocks == 0 ? null : lastKey;
+            this.rangeTombstones = rangeTombstones;
+
+            ByteBuffer low = firstKey;
+            ByteBuffer high = this.lastKey;
+            for (final RangeTombstone tombstone : rangeTombstones) {
+                if (low == null || tombstone.from().compareTo(low) < 0) {
+                    low = tombstone.from();
+                }
+                if (high == null || tombstone.to().compareTo(high) > 0) {
+                    high = tombstone.to();
+                }
+            }
+            this.lowest = low;
+            this.highest = high;
+        }
+
+        /**
+         * Get the first key of the {@code i}-th data block.
+         */
+        @NotNull
+        ByteBuffer blockKey(final int i) {
+            final long entry = entry(i);
+            return mapped.slice(entry + INDEX_ENTRY_HEADER, mapped.getInt(entry + Long.BYTES + Integer.BYTES));
+        }
+
+        /**
+         * Get index of the last block which may contain {@code key}.
+         */
+        int blockFor(@NotNull final ByteBuffer key) {
+            int left = 0;
+            int right = blocks - 1;
+            while (left <= right) {
+                final int mid = (left + right) >>> 1;
+                final int cmp = compareBlockKey(mid, key);
+                if (cmp < 0) {
+                    left = mid + 1;
+                } else if (cmp > 0) {
+                    right = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return Math.max(0, right);
+        }
+
+        /**
+         * Get index of the last block with first key less than {@code key}, the table must have such a block.
+         */
+        int blockBefore(@NotNull final ByteBuffer key) {
+            final int i = blockFor(key);
+            return blockKey(i).compareTo(key) < 0 ? i : i - 1;
+        }
+
+        /**
+         * Compare the first key of the {@code i}-th data block with {@code key} in place.
+         */
+        int compareBlockKey(
+                final int i,
+                @NotNull final ByteBuffer key) {
+            final long entry = entry(i);
+            return mapped.compare(
+                    entry + INDEX_ENTRY_HEADER,
+                    mapped.getInt(entry + Long.BYTES + Integer.BYTES),
+                    key);
+        }
+
+        private long entry(final int i) {
+            return indexOffset + mapped.getInt(offsets + (long) i * Integer.BYTES);
+        }
+
+        @NotNull
+        Block block(final int i) throws IOException {
+            final long entry = entry(i);
+            final long offset = mapped.getLong(entry);
+            return cache.get(
+                    generation,
+                    offset,
+                    () -> load(mapped.slice(offset, mapped.getInt(entry + Long.BYTES))));
+        }
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private final Index index;
+        @Nullable
+        private final ByteBuffer to;
+        @Nullable
+        private final BiPredicate<ByteBuffer, ByteBuffer> skipped;
+        private int blockIndex;
+        // Null if the current block is skipped
+        @Nullable
+        private Block.Cursor cursor;
+        private boolean done;
+
+        CellIterator(
+                @NotNull final Index index,
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to,
+                @Nullable final BiPredicate<ByteBuffer, ByteBuffer> skipped) throws IOException {
+            this.index = index;
+            this.to = to;
+            this.skipped = skipped;
+            this.blockIndex = index.blockFor(from);
+            if (!skipped(blockIndex)) {
+                this.cursor = index.block(blockIndex).cursor();
+                this.cursor.seek(from);
+            }
+        }
+
+        private boolean skipped(final int i) {
+            if (skipped == null) {
+                return false;
+            }
+
+            final ByteBuffer end;
+            if (i + 1 < index.blocks) {
+                end = index.blockKey(i + 1);
+            } else {
+                // The least key greater than the last one
+                final ByteBuffer last = index.lastKey;
+                end = ByteBuffer.allocate(last.remaining() + 1).put(last.duplicate()).put((byte) 0).flip();
+            }
+            return skipped.test(index.blockKey(i), end);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (done) {
+                return false;
+            }
+
+            // Blocks are loaded lazily, only when the previous one is exhausted and the next one is in range
+            while (cursor == null || !cursor.hasNext()) {
+                if (blockIndex + 1 == index.blocks || to != null && index.compareBlockKey(blockIndex + 1, to) >= 0) {
+                    done = true;
+                    return false;
+                }
+                cursor = null;
+                if (!skipped(++blockIndex)) {
+                    try {
+                        cursor = index.block(blockIndex).cursor();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+            if (to != null && cursor.compareTo(to) >= 0) {
+                done = true;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted table");
+            }
+
+            assert cursor != null;
+            return cursor.next(generation);
+        }
+    }
+
+    private final class DescendingCellIterator implements Iterator<Cell> {
+        private final Index index;
+        private int blockIndex;
+        private Block.ReverseCursor cursor;
+
+        DescendingCellIterator(
+                @NotNull final Index index,
+                @Nullable final ByteBuffer to) throws IOException {
+            this.index = index;
+            this.blockIndex = to == null ? index.blocks - 1 : index.blockBefore(to);
+            this.cursor = index.block(blockIndex).reverseCursor(to, generation);
+        }
+
+        @Override
+        public boolean hasNext() {
+            // Blocks are loaded lazily, only when the next one is exhausted
+            while (!cursor.hasNext()) {
+                if (blockIndex == 0) {
+                    return false;
+                }
+                try {
+                    cursor = index.block(--blockIndex).reverseCursor(null, generation);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted table");
+            }
+
+            return cursor.next();
+        }
+    }
+}
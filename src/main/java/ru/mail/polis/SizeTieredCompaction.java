@@ -0,0 +1,113 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * {@link CompactionStrategy} merging {@link SSTable}s of similar size.
+ *
+ * <p>Tables form runs of neighbours in age whose sizes stay within {@link #BUCKET_LOW} and {@link #BUCKET_HIGH}
+ * of the run average, tables smaller than the flush threshold being all alike. The run of at least
+ * {@link #MIN_THRESHOLD} tables with the smallest average is merged into a single table, so every byte is
+ * rewritten about once per tier of {@link #MIN_THRESHOLD} times larger tables at the cost of lookups
+ * probing every table.
+ *
+ * <p>Not thread-safe.
+ */
+final class SizeTieredCompaction implements CompactionStrategy {
+    static final int MIN_THRESHOLD = 4;
+    static final int MAX_THRESHOLD = 32;
+
+    private static final double BUCKET_LOW = 0.5;
+    private static final double BUCKET_HIGH = 1.5;
+
+    private final long minSize;
+
+    SizeTieredCompaction(final long minSize) {
+        this.minSize = minSize;
+    }
+
+    @Nullable
+    @Override
+    public Compaction pick(@NotNull final List<SSTable> tables) {
+        List<SSTable> best = null;
+        double bestAverage = Double.MAX_VALUE;
+        int start = 0;
+        while (start < tables.size()) {
+            long total = tables.get(start).sizeInBytes();
+            int end = start + 1;
+            while (end < tables.size()
+                    && end - start < MAX_THRESHOLD
+                    && similar(tables.get(end).sizeInBytes(), (double) total / (end - start))) {
+                total += tables.get(end).sizeInBytes();
+                end++;
+            }
+
+            final double average = (double) total / (end - start);
+            if (end - start >= MIN_THRESHOLD && average < bestAverage) {
+                best = tables.subList(start, end);
+                bestAverage = average;
+            }
+            start = end;
+        }
+        return best == null ? null : merge(best);
+    }
+
+    @Nullable
+    @Override
+    public Compaction full(@NotNull final List<SSTable> tables) {
+        if (tables.isEmpty() || tables.size() == 1
+                && tables.get(0).tombstoneCount() == 0
+                && tables.get(0).rangeTombstones().isEmpty()) {
+            return null;
+        }
+
+        return merge(tables);
+    }
+
+    /**
+     * The result of a merge is a single table.
+     */
+    @Override
+    public long tableSize() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Every byte is written to the commit log and flushed, then once per tier.
+     */
+    @Override
+    public double writeAmplification(@NotNull final List<SSTable> tables) {
+        long total = 0;
+        for (final SSTable table : tables) {
+            total += table.sizeInBytes();
+        }
+        final double tiers = Math.log((double) total / minSize) / Math.log(MIN_THRESHOLD);
+        return 2 + Math.max(0, Math.ceil(tiers));
+    }
+
+    /**
+     * Every table may hold the key.
+     */
+    @Override
+    public double readAmplification(@NotNull final List<SSTable> tables) {
+        return tables.size();
+    }
+
+    private boolean similar(
+            final long size,
+            final double average) {
+        return size < minSize && average < minSize
+                || size >= average * BUCKET_LOW && size <= average * BUCKET_HIGH;
+    }
+
+    /**
+     * Merge the neighbouring {@code tables} into the level of the oldest one to keep it in its place among the rest.
+     */
+    @NotNull
+    private static Compaction merge(@NotNull final List<SSTable> tables) {
+        return new Compaction(tables, tables.get(tables.size() - 1).level());
+    }
+}
@@ -0,0 +1,46 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Point-in-time view of a {@link DAO} obtained via {@link DAO#snapshot()}.
+ *
+ * <p>Reads through the snapshot see exactly the writes made before it was taken.
+ * An open snapshot keeps the versions it needs from being compacted away, so close it as soon as possible.
+ */
+public final class Snapshot implements AutoCloseable {
+    private final Snapshots owner;
+    private final long sequence;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    Snapshot(
+            @NotNull final Snapshots owner,
+            final long sequence) {
+        this.owner = owner;
+        this.sequence = sequence;
+    }
+
+    @NotNull
+    Snapshots owner() {
+        return owner;
+    }
+
+    /**
+     * Get sequence number of the last write visible through the snapshot.
+     */
+    long sequence() {
+        if (closed.get()) {
+            throw new IllegalStateException("Snapshot is closed");
+        }
+        return sequence;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            owner.release(sequence);
+        }
+    }
+}
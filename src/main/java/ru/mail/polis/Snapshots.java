@@ -0,0 +1,37 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Registry of the open {@link Snapshot}s of a {@link DAO}.
+ */
+final class Snapshots {
+    // Guarded by this
+    private final NavigableMap<Long, Integer> open = new TreeMap<>();
+
+    @NotNull
+    synchronized Snapshot acquire(final long sequence) {
+        open.merge(sequence, 1, Integer::sum);
+        return new Snapshot(this, sequence);
+    }
+
+    synchronized void release(final long sequence) {
+        open.computeIfPresent(sequence, (s, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Get sorted sequence numbers of the open snapshots.
+     */
+    @NotNull
+    synchronized long[] sequences() {
+        final long[] result = new long[open.size()];
+        int i = 0;
+        for (final long sequence : open.keySet()) {
+            result[i++] = sequence;
+        }
+        return result;
+    }
+}
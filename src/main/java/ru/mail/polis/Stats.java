@@ -0,0 +1,171 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Snapshot of the {@link DAO} metrics since it was opened.
+ */
+public final class Stats {
+    private final LatencyStats get;
+    private final LatencyStats upsert;
+    private final LatencyStats remove;
+    private final LatencyStats iterator;
+    private final long lookups;
+    private final long tablesProbed;
+    private final long bloomNegatives;
+    private final long bloomFalsePositives;
+    private final long blockCacheHits;
+    private final long blockCacheMisses;
+    private final long rowCacheHits;
+    private final long rowCacheMisses;
+    private final long bytesFlushed;
+    private final long bytesCompacted;
+
+    Stats(
+            @NotNull final LatencyStats get,
+            @NotNull final LatencyStats upsert,
+            @NotNull final LatencyStats remove,
+            @NotNull final LatencyStats iterator,
+            final long lookups,
+            final long tablesProbed,
+            final long bloomNegatives,
+            final long bloomFalsePositives,
+            final long blockCacheHits,
+            final long blockCacheMisses,
+            final long rowCacheHits,
+            final long rowCacheMisses,
+            final long bytesFlushed,
+            final long bytesCompacted) {
+        this.get = get;
+        this.upsert = upsert;
+        this.remove = remove;
+        this.iterator = iterator;
+        this.lookups = lookups;
+        this.tablesProbed = tablesProbed;
+        this.bloomNegatives = bloomNegatives;
+        this.bloomFalsePositives = bloomFalsePositives;
+        this.blockCacheHits = blockCacheHits;
+        this.blockCacheMisses = blockCacheMisses;
+        this.rowCacheHits = rowCacheHits;
+        this.rowCacheMisses = rowCacheMisses;
+        this.bytesFlushed = bytesFlushed;
+        this.bytesCompacted = bytesCompacted;
+    }
+
+    @NotNull
+    public LatencyStats getGet() {
+        return get;
+    }
+
+    @NotNull
+    public LatencyStats getUpsert() {
+        return upsert;
+    }
+
+    @NotNull
+    public LatencyStats getRemove() {
+        return remove;
+    }
+
+    /**
+     * Get latencies of opening iterators and ranges, consuming them is not included.
+     */
+    @NotNull
+    public LatencyStats getIterator() {
+        return iterator;
+    }
+
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Get the number of tables whose data was read by point lookups.
+     */
+    public long getTablesProbed() {
+        return tablesProbed;
+    }
+
+    public double getTablesProbedPerLookup() {
+        return lookups == 0 ? 0.0 : (double) tablesProbed / lookups;
+    }
+
+    /**
+     * Get the number of table reads avoided by Bloom filters.
+     */
+    public long getBloomNegatives() {
+        return bloomNegatives;
+    }
+
+    /**
+     * Get the number of tables read in vain after their Bloom filters allowed the key.
+     */
+    public long getBloomFalsePositives() {
+        return bloomFalsePositives;
+    }
+
+    /**
+     * Get the share of the lookups of absent keys the Bloom filters answered without reading the tables.
+     */
+    public double getBloomEffectiveness() {
+        final long absent = bloomNegatives + bloomFalsePositives;
+        return absent == 0 ? 1.0 : (double) bloomNegatives / absent;
+    }
+
+    public long getBlockCacheHits() {
+        return blockCacheHits;
+    }
+
+    public long getBlockCacheMisses() {
+        return blockCacheMisses;
+    }
+
+    public double getBlockCacheHitRate() {
+        final long total = blockCacheHits + blockCacheMisses;
+        return total == 0 ? 0.0 : (double) blockCacheHits / total;
+    }
+
+    public long getRowCacheHits() {
+        return rowCacheHits;
+    }
+
+    public long getRowCacheMisses() {
+        return rowCacheMisses;
+    }
+
+    /**
+     * Get the share of point lookups served by the row cache, {@code 0} if it is disabled.
+     */
+    public double getRowCacheHitRate() {
+        final long total = rowCacheHits + rowCacheMisses;
+        return total == 0 ? 0.0 : (double) rowCacheHits / total;
+    }
+
+    public long getBytesFlushed() {
+        return bytesFlushed;
+    }
+
+    public long getBytesCompacted() {
+        return bytesCompacted;
+    }
+
+    /**
+     * Get the bytes written to tables per byte flushed, {@code 1} means no compaction rewrites.
+     */
+    public double getWriteAmplification() {
+        return bytesFlushed == 0 ? 0.0 : (double) (bytesFlushed + bytesCompacted) / bytesFlushed;
+    }
+
+    @Override
+    public String toString() {
+        return "get: " + get
+                + "\nupsert: " + upsert
+                + "\nremove: " + remove
+                + "\niterator: " + iterator
+                + "\ntables per lookup: " + getTablesProbedPerLookup()
+                + "\nbloom effectiveness: " + getBloomEffectiveness()
+                + "\nblock cache hit rate: " + getBlockCacheHitRate()
+                + "\nrow cache hit rate: " + getRowCacheHitRate()
+                + "\nwrite amplification: " + getWriteAmplification();
+    }
+}
@@ -0,0 +1,8 @@
+package ru.mail.polis;
+
+/**
+ * JMX view of the {@link DAO} metrics, registered as {@code ru.mail.polis:type=DAO,name=<data directory>}.
+ */
+public interface StatsMXBean {
+    Stats getStats();
+}
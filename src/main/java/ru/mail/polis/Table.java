@@ -0,0 +1,136 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sorted source of {@link Cell}s: either the in-memory table or an on-disk one.
+ */
+interface Table {
+    /**
+     * Get {@link Iterator} of the latest {@link Cell}s (including tombstones) with keys starting from {@code from}
+     * inclusive.
+     */
+    @NotNull
+    default Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return iterator(from, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get {@link Iterator} of the newest {@link Cell}s with sequence numbers not greater than {@code snapshot}
+     * and keys from {@code from} inclusive to {@code to} exclusive or till the end if {@code to} is {@code null}.
+     */
+    @NotNull
+    default Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long snapshot) throws IOException {
+        return Versions.visible(versions(from, to), snapshot);
+    }
+
+    /**
+     * Get {@link Iterator} of all the versions of keys starting from {@code from} inclusive
+     * in {@link Cell#VERSION_COMPARATOR} order.
+     */
+    @NotNull
+    default Iterator<Cell> versions(@NotNull final ByteBuffer from) throws IOException {
+        return versions(from, null);
+    }
+
+    /**
+     * Get {@link Iterator} of all the versions of keys from {@code from} inclusive to {@code to} exclusive
+     * or till the end if {@code to} is {@code null} in {@link Cell#VERSION_COMPARATOR} order.
+     *
+     * <p>Data past {@code to} is not read at all.
+     */
+    @NotNull
+    Iterator<Cell> versions(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException;
+
+    /**
+     * Get {@link Iterator} of the newest {@link Cell}s with sequence numbers not greater than {@code snapshot}
+     * and keys less than {@code to} exclusive or all the keys if {@code to} is {@code null} in descending order.
+     */
+    @NotNull
+    default Iterator<Cell> descendingIterator(
+            @Nullable final ByteBuffer to,
+            final long snapshot) throws IOException {
+        return Versions.visibleDescending(descendingVersions(to), snapshot);
+    }
+
+    /**
+     * Get {@link Iterator} of all the versions of keys less than {@code to} exclusive or of all the keys
+     * if {@code to} is {@code null} in reverse {@link Cell#VERSION_COMPARATOR} order.
+     */
+    @NotNull
+    Iterator<Cell> descendingVersions(@Nullable ByteBuffer to) throws IOException;
+
+    /**
+     * Get the latest {@link Cell} (possibly a tombstone) with exactly the {@code key} or {@code null} if none.
+     */
+    @Nullable
+    default Cell get(@NotNull final ByteBuffer key) throws IOException {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * Get the newest {@link Cell} with exactly the {@code key} and sequence number not greater than
+     * {@code snapshot} or {@code null} if none.
+     */
+    @Nullable
+    Cell get(
+            @NotNull ByteBuffer key,
+            long snapshot) throws IOException;
+
+    /**
+     * Look up the {@code keys} sorted in ascending order whose indexes are set in {@code candidates}
+     * as of the {@code snapshot}, storing the cells found to the same indexes of {@code found}.
+     */
+    default void get(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final BitSet candidates,
+            final long snapshot,
+            @NotNull final Cell[] found) throws IOException {
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            found[i] = get(keys.get(i), snapshot);
+        }
+    }
+
+    /**
+     * Get the {@link RangeTombstone}s of the table, they apply to the {@link Cell}s of all the tables.
+     */
+    @NotNull
+    default Collection<RangeTombstone> rangeTombstones() {
+        return List.of();
+    }
+
+    /**
+     * Check whether the key with the {@link BloomFilter#hash(ByteBuffer)} may be in the table.
+     *
+     * @return {@code false} only if the key is definitely absent
+     */
+    default boolean mightContain(final long hash) {
+        return true;
+    }
+
+    /**
+     * Get generation of the table, unique within the DAO.
+     *
+     * <p>Of the in-memory and flushed tables newer ones have greater generations,
+     * compacted tables are ordered by {@link SSTable#level()} instead.
+     */
+    long generation();
+
+    /**
+     * Get approximate size of the table contents in bytes.
+     */
+    long sizeInBytes();
+}
@@ -0,0 +1,246 @@
+package ru.mail.polis;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.function.Predicate;
+
+/**
+ * Utility methods for iterators of {@link Cell} versions sorted by {@link Cell#VERSION_COMPARATOR}.
+ */
+final class Versions {
+    private Versions() {
+        // Don't instantiate
+    }
+
+    /**
+     * Get the newest version of every key with sequence number not greater than {@code snapshot}.
+     */
+    @NotNull
+    static Iterator<Cell> visible(
+            @NotNull final Iterator<Cell> versions,
+            final long snapshot) {
+        return new VisibleIterator(versions, snapshot);
+    }
+
+    /**
+     * Get the newest version of every key with sequence number not greater than {@code snapshot}
+     * from {@code versions} sorted in reverse {@link Cell#VERSION_COMPARATOR} order.
+     */
+    @NotNull
+    static Iterator<Cell> visibleDescending(
+            @NotNull final Iterator<Cell> versions,
+            final long snapshot) {
+        return new VisibleDescendingIterator(versions, snapshot);
+    }
+
+    /**
+     * Drop the versions nobody can read any more.
+     *
+     * <p>The newest version of every key is kept as well as the newest version visible to each of the open
+     * {@code snapshots}. Tombstones left as the oldest kept versions are dropped unless the key may be
+     * {@code shadowed} in older tables.
+     *
+     * @param snapshots sorted sequence numbers of the open snapshots
+     */
+    @NotNull
+    static Iterator<Cell> retained(
+            @NotNull final Iterator<Cell> versions,
+            @NotNull final long[] snapshots,
+            @NotNull final Predicate<ByteBuffer> shadowed) {
+        return new RetainingIterator(versions, snapshots, shadowed);
+    }
+
+    /**
+     * Replace the {@code cells} deleted by the {@code rangeTombstones} with tombstones.
+     */
+    @NotNull
+    static Iterator<Cell> deleted(
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final RangeTombstones rangeTombstones) {
+        if (rangeTombstones.isEmpty()) {
+            return cells;
+        }
+        return Iterators.transform(
+                cells,
+                cell -> cell.isTombstone() || !rangeTombstones.covers(cell.getKey(), cell.getSequence())
+                        ? cell
+                        : Cell.tombstone(cell.getKey(), cell.getGeneration(), cell.getSequence()));
+    }
+
+    /**
+     * Drop the versions deleted by the {@code rangeTombstones} nobody can read any more.
+     *
+     * @param snapshots sorted sequence numbers of the open snapshots
+     */
+    @NotNull
+    static Iterator<Cell> uncovered(
+            @NotNull final Iterator<Cell> versions,
+            @NotNull final RangeTombstones rangeTombstones,
+            @NotNull final long[] snapshots) {
+        if (rangeTombstones.isEmpty()) {
+            return versions;
+        }
+        return Iterators.filter(versions, cell -> !rangeTombstones.hides(cell.getKey(), cell.getSequence(), snapshots));
+    }
+
+    private static final class VisibleIterator implements Iterator<Cell> {
+        private final Iterator<Cell> versions;
+        private final long snapshot;
+        @Nullable
+        private Cell next;
+
+        VisibleIterator(
+                @NotNull final Iterator<Cell> versions,
+                final long snapshot) {
+            this.versions = versions;
+            this.snapshot = snapshot;
+            this.next = advance(null);
+        }
+
+        @Nullable
+        private Cell advance(@Nullable final ByteBuffer previous) {
+            while (versions.hasNext()) {
+                final Cell cell = versions.next();
+                if (cell.getSequence() <= snapshot && !cell.getKey().equals(previous)) {
+                    return cell;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (next == null) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+
+            final Cell result = next;
+            next = advance(result.getKey());
+            return result;
+        }
+    }
+
+    private static final class VisibleDescendingIterator implements Iterator<Cell> {
+        private final PeekingIterator<Cell> versions;
+        private final long snapshot;
+        @Nullable
+        private Cell next;
+
+        VisibleDescendingIterator(
+                @NotNull final Iterator<Cell> versions,
+                final long snapshot) {
+            this.versions = Iterators.peekingIterator(versions);
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && versions.hasNext()) {
+                // Versions of a key come from the oldest to the newest
+                final ByteBuffer key = versions.peek().getKey();
+                while (versions.hasNext() && versions.peek().getKey().equals(key)) {
+                    final Cell cell = versions.next();
+                    if (cell.getSequence() <= snapshot) {
+                        next = cell;
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+
+            final Cell result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    private static final class RetainingIterator implements Iterator<Cell> {
+        private final PeekingIterator<Cell> versions;
+        private final long[] snapshots;
+        private final Predicate<ByteBuffer> shadowed;
+        private final List<Cell> group = new ArrayList<>();
+        private final Queue<Cell> kept = new ArrayDeque<>();
+
+        RetainingIterator(
+                @NotNull final Iterator<Cell> versions,
+                @NotNull final long[] snapshots,
+                @NotNull final Predicate<ByteBuffer> shadowed) {
+            this.versions = Iterators.peekingIterator(versions);
+            this.snapshots = snapshots;
+            this.shadowed = shadowed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (kept.isEmpty() && versions.hasNext()) {
+                nextGroup();
+            }
+            return !kept.isEmpty();
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Next on exhausted iterator");
+            }
+
+            return kept.remove();
+        }
+
+        private void nextGroup() {
+            group.clear();
+            final Cell newest = versions.next();
+            group.add(newest);
+            Cell newer = newest;
+            while (versions.hasNext() && versions.peek().getKey().equals(newest.getKey())) {
+                final Cell older = versions.next();
+                // Needed only if some snapshot sees it rather than the newer version
+                if (seesOnly(older.getSequence(), newer.getSequence())) {
+                    group.add(older);
+                }
+                newer = older;
+            }
+
+            int size = group.size();
+            while (size > 0 && group.get(size - 1).isTombstone() && !shadowed.test(newest.getKey())) {
+                size--;
+            }
+            kept.addAll(group.subList(0, size));
+        }
+
+        /**
+         * Check whether some snapshot is in {@code [from, to)}.
+         */
+        private boolean seesOnly(
+                final long from,
+                final long to) {
+            int i = Arrays.binarySearch(snapshots, from);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < snapshots.length && snapshots[i] < to;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutations of several keys to be applied by {@link DAO#write(WriteBatch)} in the order they were added.
+ *
+ * <p>Like {@link DAO#upsert(ByteBuffer, ByteBuffer)} the batch keeps the passed buffers as they are,
+ * so they must not be modified until the batch is written. The batch is not thread-safe.
+ */
+public final class WriteBatch {
+    private final List<ByteBuffer> keys = new ArrayList<>();
+    // null for removals
+    private final List<ByteBuffer> values = new ArrayList<>();
+
+    @NotNull
+    public WriteBatch upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        keys.add(key);
+        values.add(value);
+        return this;
+    }
+
+    @NotNull
+    public WriteBatch remove(@NotNull final ByteBuffer key) {
+        keys.add(key);
+        values.add(null);
+        return this;
+    }
+
+    /**
+     * Get the number of mutations.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    public void clear() {
+        keys.clear();
+        values.clear();
+    }
+
+    @NotNull
+    ByteBuffer key(final int i) {
+        return keys.get(i);
+    }
+
+    /**
+     * Get the value of the {@code i}-th mutation or {@code null} if it is a removal.
+     */
+    @Nullable
+    ByteBuffer value(final int i) {
+        return values.get(i);
+    }
+}
@@ -0,0 +1,328 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link AsyncDAO}.
+ */
+class AsyncTest extends TestBase {
+    private static final Config CONFIG = Config.builder().asyncThreads(2).build();
+
+    @Test
+    void operations(@TempDir File data) throws Exception {
+        try (AsyncDAO dao = DAOFactory.async(DAOFactory.create(data, CONFIG), CONFIG)) {
+            final ByteBuffer key = randomKey();
+            final ByteBuffer value = randomValue();
+            dao.upsertAsync(key, value).get();
+            assertEquals(value, dao.getAsync(key).get());
+
+            dao.removeAsync(key).get();
+            final ExecutionException e = assertThrows(ExecutionException.class, () -> dao.getAsync(key).get());
+            assertTrue(e.getCause() instanceof NoSuchElementException);
+        }
+    }
+
+    @Test
+    void virtualThreads(@TempDir File data) throws Exception {
+        // Falls back to platform threads on JDKs without virtual ones
+        final Config config = Config.builder().asyncVirtualThreads(true).build();
+        try (AsyncDAO dao = DAOFactory.async(DAOFactory.create(data, config), config)) {
+            final ByteBuffer key = randomKey();
+            dao.upsertAsync(key, key).get();
+            assertEquals(key, dao.getAsync(key).get());
+        }
+    }
+
+    @Test
+    void manyOutstanding(@TempDir File data) throws Exception {
+        try (AsyncDAO dao = DAOFactory.async(DAOFactory.create(data, CONFIG), CONFIG)) {
+            final List<ByteBuffer> keys = new ArrayList<>();
+            final List<CompletableFuture<Void>> writes = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                keys.add(key);
+                writes.add(dao.upsertAsync(key, key));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get();
+
+            final List<CompletableFuture<ByteBuffer>> reads = new ArrayList<>();
+            for (final ByteBuffer key : keys) {
+                reads.add(dao.getAsync(key));
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(keys.get(i), reads.get(i).get());
+            }
+        }
+    }
+
+    @Test
+    void rangeBackpressure(@TempDir File data) throws Exception {
+        final NavigableMap<ByteBuffer, ByteBuffer> values = new TreeMap<>();
+        try (AsyncDAO dao = DAOFactory.async(DAOFactory.create(data, CONFIG), CONFIG)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsertAsync(key, value).get();
+                values.put(key, value);
+            }
+            final ByteBuffer from = values.keySet().stream().skip(100).findFirst().orElseThrow();
+            final ByteBuffer to = values.keySet().stream().skip(900).findFirst().orElseThrow();
+
+            final List<Record> received = new ArrayList<>();
+            final AtomicInteger outstanding = new AtomicInteger();
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            final CountDownLatch completed = new CountDownLatch(1);
+            dao.rangeAsync(from, to).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    outstanding.set(3);
+                    subscription.request(3);
+                }
+
+                @Override
+                public void onNext(final Record item) {
+                    if (outstanding.decrementAndGet() < 0) {
+                        error.set(new AssertionError("More records than requested"));
+                    }
+                    received.add(item);
+                    if (outstanding.get() == 0) {
+                        outstanding.set(3);
+                        subscription.request(3);
+                    }
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    error.set(throwable);
+                    completed.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            assertNull(error.get());
+
+            final List<ByteBuffer> expected = new ArrayList<>(values.subMap(from, to).keySet());
+            assertEquals(expected.size(), received.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), received.get(i).getKey());
+                assertEquals(values.get(expected.get(i)), received.get(i).getValue());
+            }
+        }
+    }
+
+    @Test
+    void rangeCancel(@TempDir File data) throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        try (AsyncDAO dao = DAOFactory.async(DAOFactory.create(data, CONFIG), CONFIG)) {
+            for (int i = 0; i < 100; i++) {
+                dao.upsertAsync(randomKey(), randomValue()).get();
+            }
+
+            final CountDownLatch first = new CountDownLatch(1);
+            dao.rangeAsync(ByteBuffer.allocate(0), null).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(final Record item) {
+                    received.incrementAndGet();
+                    subscription.cancel();
+                    first.countDown();
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    error.set(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    error.set(new AssertionError("Completed after cancel"));
+                }
+            });
+            assertTrue(first.await(10, TimeUnit.SECONDS));
+        }
+        // Closing waits for the range task
+        assertEquals(1, received.get());
+        assertNull(error.get());
+    }
+
+    @Test
+    void rangeNonPositiveRequest(@TempDir File data) throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger signalling = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch failed = new CountDownLatch(1);
+        try (AsyncDAO dao = DAOFactory.async(DAOFactory.create(data, CONFIG), CONFIG)) {
+            for (int i = 0; i < 10; i++) {
+                dao.upsertAsync(randomKey(), randomValue()).get();
+            }
+
+            dao.rangeAsync(ByteBuffer.allocate(0), null).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(final Record item) {
+                    if (signalling.incrementAndGet() != 1) {
+                        error.set(new AssertionError("Concurrent signals"));
+                    }
+                    received.incrementAndGet();
+                    subscription.request(0);
+                    signalling.decrementAndGet();
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    if (signalling.get() != 0) {
+                        error.set(new AssertionError("Error signalled during onNext"));
+                    } else if (!(throwable instanceof IllegalArgumentException)) {
+                        error.set(throwable);
+                    }
+                    failed.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    error.set(new AssertionError("Completed after an invalid request"));
+                }
+            });
+            assertTrue(failed.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, received.get());
+        assertNull(error.get());
+    }
+
+    @Test
+    void rangeCountsAsPending(@TempDir File data) throws Exception {
+        final Config config = Config.builder().asyncThreads(2).asyncMaxPending(1).build();
+        final CountDownLatch receiving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final DAO sync = DAOFactory.create(data, config);
+        final ByteBuffer key = randomKey();
+        sync.upsert(key, key);
+        try (AsyncDAO dao = DAOFactory.async(sync, config)) {
+            dao.rangeAsync(ByteBuffer.allocate(0), null).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(final Record item) {
+                    receiving.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                    completed.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+            assertTrue(receiving.await(10, TimeUnit.SECONDS));
+
+            // The range read holds the only permit
+            final ExecutionException e = assertThrows(ExecutionException.class, () -> dao.getAsync(key).get());
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+            release.countDown();
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+            // The permit is released before the completion is signalled
+            assertEquals(key, dao.getAsync(key).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void rangeEndedOnClose(@TempDir File data) throws Exception {
+        final DAO sync = DAOFactory.create(data, CONFIG);
+        for (int i = 0; i < 10; i++) {
+            sync.upsert(randomKey(), randomValue());
+        }
+        final CountDownLatch received = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+        final AtomicReference<Flow.Subscription> idle = new AtomicReference<>();
+        final AsyncDAO dao = DAOFactory.async(sync, CONFIG);
+        dao.rangeAsync(ByteBuffer.allocate(0), null).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(final Flow.Subscription subscription) {
+                idle.set(subscription);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(final Record item) {
+                count.incrementAndGet();
+                received.countDown();
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(null);
+            }
+        });
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        dao.close();
+
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> completed.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof ClosedChannelException);
+
+        // Requesting more after the range has ended reads nothing
+        idle.get().request(1);
+        assertEquals(1, count.get());
+    }
+}
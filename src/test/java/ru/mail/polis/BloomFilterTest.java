@@ -0,0 +1,72 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link BloomFilter}.
+ */
+class BloomFilterTest extends TestBase {
+    private static final int KEYS = 10_000;
+
+    @Test
+    void falsePositiveRate() {
+        final long[] hashes = new long[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            hashes[i] = BloomFilter.hash(randomKey());
+        }
+        final BloomFilter filter = new BloomFilter(BloomFilter.build(hashes, KEYS, 10));
+
+        for (final long hash : hashes) {
+            assertTrue(filter.mightContain(hash));
+        }
+
+        int positives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (filter.mightContain(BloomFilter.hash(randomKey()))) {
+                positives++;
+            }
+        }
+        assertTrue(positives < KEYS / 50, "Too many false positives: " + positives);
+    }
+
+    @Test
+    void disabled() {
+        final BloomFilter filter = new BloomFilter(BloomFilter.build(new long[0], 0, 0));
+        assertTrue(filter.mightContain(BloomFilter.hash(randomKey())));
+    }
+
+    @Test
+    void hashIgnoresPosition() {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer shifted = join(randomBuffer(3), key);
+        shifted.position(3);
+        assertEquals(BloomFilter.hash(key), BloomFilter.hash(shifted));
+    }
+
+    @Test
+    void missesSkipBlocks(@TempDir File data) throws IOException {
+        final Config config = Config.builder().flushThreshold(64 * 1024).build();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            for (int i = 0; i < 500; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+
+            final long misses = dao.blockCache().misses();
+            final long hits = dao.blockCache().hits();
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+            final long reads = dao.blockCache().misses() - misses + dao.blockCache().hits() - hits;
+            assertTrue(reads < 1000, "Too many block reads: " + reads);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link Codec}s and compressed {@link SSTable}s.
+ */
+class CodecTest extends TestBase {
+    @Test
+    void roundTrip() throws IOException {
+        for (final Codec.Kind kind : Codec.Kind.values()) {
+            final Codec codec = kind.codec();
+            if (codec == null) {
+                continue;
+            }
+
+            for (final ByteBuffer raw : new ByteBuffer[]{
+                    ByteBuffer.allocate(0),
+                    randomBuffer(1),
+                    randomBuffer(10_000),
+                    ByteBuffer.allocate(10_000),
+                    compressible(10_000)}) {
+                final ByteBuffer compressed = codec.compress(raw);
+                assertEquals(raw, codec.decompress(compressed, raw.remaining()));
+            }
+            assertTrue(codec.compress(compressible(10_000)).remaining() < 5_000);
+        }
+    }
+
+    @Test
+    void corrupted() {
+        final Codec codec = Codec.Kind.LZ.codec();
+        assertNotNull(codec);
+        final ByteBuffer compressed = codec.compress(compressible(1000));
+        assertThrows(
+                IOException.class,
+                () -> codec.decompress(Bytes.slice(compressed, 0, compressed.remaining() / 2), 1000));
+    }
+
+    @Test
+    void smallerFiles(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(randomKey(), compressible(1024));
+        }
+
+        long previous = Long.MAX_VALUE;
+        for (final Codec.Kind kind : new Codec.Kind[]{Codec.Kind.NONE, Codec.Kind.LZ, Codec.Kind.DEFLATE}) {
+            final File dir = new File(data, kind.name());
+            assertTrue(dir.mkdir());
+            final Config config = Config.builder().codec(kind).build();
+            try (DAO dao = DAOFactory.create(dir, config)) {
+                for (final Map.Entry<ByteBuffer, ByteBuffer> entry : map.entrySet()) {
+                    dao.upsert(entry.getKey(), entry.getValue());
+                }
+            }
+            try (DAO dao = DAOFactory.create(dir, config)) {
+                PersistenceTest.assertContains(dao, map);
+            }
+
+            final long size = Files.directorySize(dir);
+            assertTrue(size < previous, kind + " takes " + size + " bytes");
+            previous = size;
+        }
+    }
+
+    /**
+     * Get text-like bytes: random words from a small dictionary.
+     */
+    private static ByteBuffer compressible(final int length) {
+        final String[] words = {"tenant", "entity", "timestamp", "value", "record", "storage", "polis"};
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        final ByteBuffer random = randomBuffer(length);
+        int i = 0;
+        while (result.hasRemaining()) {
+            final byte[] word = words[(random.get(i++ % length) & 0xFF) % words.length].getBytes(StandardCharsets.US_ASCII);
+            result.put(word, 0, Math.min(word.length, result.remaining()));
+        }
+        return result.flip();
+    }
+}
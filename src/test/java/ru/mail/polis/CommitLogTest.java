@@ -0,0 +1,98 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Recovery tests for {@link CommitLog}.
+ */
+class CommitLogTest extends TestBase {
+    @Test
+    void replayUnclosed(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        final ByteBuffer removed = randomKey();
+
+        // Simulate a crash by never closing the DAO
+        final DAO crashed = DAOFactory.create(data);
+        crashed.upsert(key, value);
+        crashed.upsert(removed, randomValue());
+        crashed.remove(removed);
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+    }
+
+    @Test
+    void tornTail(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        final DAO crashed = DAOFactory.create(data);
+        crashed.upsert(key, value);
+
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(CommitLog.SUFFIX));
+        assertNotNull(logs);
+        assertEquals(1, logs.length);
+        try (FileOutputStream out = new FileOutputStream(logs[0], true)) {
+            out.write(new byte[]{0, 0, 1, 0, 42});
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void groupCommit(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .syncPolicy(CommitLog.SyncPolicy.ALWAYS)
+                .build();
+        final int threads = 8;
+        final int perThread = 100;
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < threads * perThread; i++) {
+            keys.add(randomKey());
+        }
+
+        final DAO crashed = DAOFactory.create(data, config);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final List<ByteBuffer> part = keys.subList(t * perThread, (t + 1) * perThread);
+                futures.add(executor.submit(() -> {
+                    for (final ByteBuffer key : part) {
+                        crashed.upsert(key, key);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final ByteBuffer key : keys) {
+                assertEquals(key, dao.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for background and forced compaction.
+ */
+class CompactionTest extends TestBase {
+    private static final long SMALL_FLUSH_THRESHOLD = 16 * 1024;
+    private static final int KEYS = 50;
+    private static final int ROUNDS = 20;
+
+    @Test
+    void overwrite(@TempDir File data) throws IOException {
+        overwrite(data, Config.builder().flushThreshold(SMALL_FLUSH_THRESHOLD).build());
+    }
+
+    @Test
+    void overwriteSizeTiered(@TempDir File data) throws IOException {
+        overwrite(
+                data,
+                Config.builder()
+                        .flushThreshold(SMALL_FLUSH_THRESHOLD)
+                        .compaction(CompactionStrategy.Kind.SIZE_TIERED)
+                        .build());
+    }
+
+    private static void overwrite(
+            final File data,
+            final Config config) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        final ByteBuffer[] keys = new ByteBuffer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = randomKey();
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (final ByteBuffer key : keys) {
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(key, value);
+                    map.put(key, value);
+                }
+            }
+            dao.compact();
+            PersistenceTest.assertContains(dao, map);
+
+            final long live = (long) KEYS * (KEY_LENGTH + randomValue().remaining());
+            assertTrue(Files.directorySize(data) < 2 * live);
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            PersistenceTest.assertContains(dao, map);
+        }
+    }
+
+    @Test
+    void removeAll(@TempDir File data) throws IOException {
+        final Config config = Config.builder().flushThreshold(SMALL_FLUSH_THRESHOLD).build();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            final ByteBuffer[] keys = new ByteBuffer[KEYS * 2];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = randomKey();
+                dao.upsert(keys[i], randomValue());
+            }
+            for (final ByteBuffer key : keys) {
+                dao.remove(key);
+            }
+            dao.compact();
+
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+            assertTrue(dao.ssTables().isEmpty());
+        }
+    }
+
+    @Test
+    void levels(@TempDir File data) throws Exception {
+        final Config config = Config.builder().flushThreshold(SMALL_FLUSH_THRESHOLD).build();
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            for (int i = 0; i < 2000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                map.put(key, value);
+            }
+
+            // Let the background compaction catch up
+            List<List<SSTable>> levels = LeveledCompaction.levels(dao.ssTables());
+            for (int i = 0; i < 100 && levels.get(0).size() >= LeveledCompaction.L0_TRIGGER; i++) {
+                Thread.sleep(100);
+                levels = LeveledCompaction.levels(dao.ssTables());
+            }
+            assertTrue(levels.get(0).size() < LeveledCompaction.L0_TRIGGER);
+            assertTrue(levels.size() > 1);
+            for (int level = 1; level < levels.size(); level++) {
+                final List<SSTable> tables = levels.get(level);
+                for (int i = 1; i < tables.size(); i++) {
+                    assertTrue(tables.get(i - 1).lastKey().compareTo(tables.get(i).firstKey()) < 0);
+                }
+            }
+            PersistenceTest.assertContains(dao, map);
+        }
+    }
+
+    @Test
+    void sizeTiered(@TempDir File data) throws Exception {
+        final Config config = Config.builder()
+                .flushThreshold(SMALL_FLUSH_THRESHOLD)
+                .compaction(CompactionStrategy.Kind.SIZE_TIERED)
+                .build();
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            for (int i = 0; i < 2000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                map.put(key, value);
+                if (i % 3 == 0) {
+                    // Overwrite some keys in newer tables
+                    final ByteBuffer newer = randomValue();
+                    dao.upsert(key, newer);
+                    map.put(key, newer);
+                }
+            }
+
+            // About 180 flushes end up in a few tiers of up to MIN_THRESHOLD - 1 tables each
+            for (int i = 0; i < 100 && dao.ssTables().size() >= 4 * SizeTieredCompaction.MIN_THRESHOLD; i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(dao.ssTables().size() < 4 * SizeTieredCompaction.MIN_THRESHOLD);
+            assertTrue(dao.readAmplification() >= 1);
+            assertTrue(dao.writeAmplification() > 2);
+            PersistenceTest.assertContains(dao, map);
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            PersistenceTest.assertContains(dao, map);
+        }
+    }
+
+    @Test
+    void parallel(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(SMALL_FLUSH_THRESHOLD)
+                .compactionThreads(4)
+                .build();
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                map.put(key, value);
+            }
+            dao.compact();
+
+            final List<List<SSTable>> levels = LeveledCompaction.levels(dao.ssTables());
+            final List<SSTable> tables = levels.get(levels.size() - 1);
+            assertEquals(dao.ssTables().size(), tables.size());
+            assertTrue(tables.size() > 1);
+            for (int i = 1; i < tables.size(); i++) {
+                assertTrue(tables.get(i - 1).lastKey().compareTo(tables.get(i).firstKey()) < 0);
+            }
+            PersistenceTest.assertContains(dao, map);
+        }
+    }
+}
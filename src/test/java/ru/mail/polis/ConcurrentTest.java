@@ -0,0 +1,131 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Multi-threaded stress tests for {@link DAO} implementations.
+ */
+class ConcurrentTest extends TestBase {
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 300;
+
+    @Test
+    void concurrentWritesAndScans(@TempDir File data) throws Exception {
+        final Config config = Config.builder().flushThreshold(128 * 1024).build();
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new ConcurrentSkipListMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try (DAO dao = DAOFactory.create(data, config)) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    final List<ByteBuffer> written = new ArrayList<>();
+                    for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                        final ByteBuffer key = randomKey();
+                        final ByteBuffer value = randomValue();
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                        written.add(key);
+
+                        // Delete some of own keys to exercise tombstones across flushes
+                        if (i % 5 == 0) {
+                            final ByteBuffer victim = written.get(ThreadLocalRandom.current().nextInt(written.size()));
+                            dao.remove(victim);
+                            expected.remove(victim);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            final Future<?> scanner = executor.submit(() -> {
+                start.await();
+                while (writing.get()) {
+                    // Scans must stay sorted and duplicate-free under concurrent writes
+                    ByteBuffer previous = null;
+                    final Iterator<Record> iter = dao.iterator(ByteBuffer.allocate(0));
+                    while (iter.hasNext()) {
+                        final ByteBuffer key = iter.next().getKey();
+                        assertTrue(previous == null || previous.compareTo(key) < 0);
+                        previous = key;
+                    }
+                }
+                return null;
+            });
+
+            start.countDown();
+            for (final Future<?> writer : writers) {
+                writer.get();
+            }
+            writing.set(false);
+            scanner.get();
+
+            assertContains(dao, expected);
+        } finally {
+            executor.shutdown();
+        }
+
+        try (DAO dao = DAOFactory.create(data, config)) {
+            assertContains(dao, expected);
+        }
+    }
+
+    @Test
+    void sameKeyLastWriteWins(@TempDir File data) throws Exception {
+        final ByteBuffer key = randomKey();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (DAO dao = DAOFactory.create(data)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        dao.upsert(key, randomValue());
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            final ByteBuffer value = ByteBuffer.wrap(new byte[]{42});
+            dao.upsert(key, value);
+            assertEquals(value, dao.get(key));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertContains(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        final Iterator<Record> actual = dao.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+}
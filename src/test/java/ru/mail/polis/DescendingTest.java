@@ -0,0 +1,84 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DAO#descendingIterator(ByteBuffer)} and {@link DAO#descendingRange(ByteBuffer, ByteBuffer)}.
+ */
+class DescendingTest extends TestBase {
+    private static final long SMALL_FLUSH_THRESHOLD = 64 * 1024;
+
+    @Test
+    void heap(@TempDir File data) throws IOException {
+        descending(data, Config.builder().flushThreshold(SMALL_FLUSH_THRESHOLD).build());
+    }
+
+    @Test
+    void offHeap(@TempDir File data) throws IOException {
+        descending(
+                data,
+                Config.builder()
+                        .flushThreshold(SMALL_FLUSH_THRESHOLD)
+                        .offHeapBudget(1024 * 1024)
+                        .build());
+    }
+
+    private static void descending(
+            final File data,
+            final Config config) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < 300; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                map.put(key, value);
+            }
+            // Overwrite and remove keys spread over the flushed tables and the memtable
+            final List<ByteBuffer> keys = new ArrayList<>(map.keySet());
+            for (int i = 0; i < keys.size(); i += 3) {
+                dao.remove(keys.get(i));
+                map.remove(keys.get(i));
+                final ByteBuffer value = randomValue();
+                dao.upsert(keys.get(i + 1), value);
+                map.put(keys.get(i + 1), value);
+            }
+
+            assertDescending(dao.descendingIterator(null), map);
+            for (int i = 0; i < 20; i++) {
+                final ByteBuffer from = keys.get(i * 7);
+                final ByteBuffer to = keys.get(i * 7 + 100);
+                assertDescending(dao.descendingIterator(to), map.headMap(to, false));
+                assertDescending(dao.descendingRange(from, to), map.subMap(from, true, to, false));
+            }
+            assertFalse(dao.descendingRange(keys.get(1), keys.get(0)).hasNext());
+
+            dao.compact();
+            assertDescending(dao.descendingIterator(null), map);
+        }
+    }
+
+    private static void assertDescending(
+            final Iterator<Record> actual,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.descendingMap().entrySet()) {
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+}
@@ -0,0 +1,137 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DAO#getAll(java.util.Collection)}.
+ */
+class GetAllTest extends TestBase {
+    @Test
+    void manyTables(@TempDir File data) throws IOException {
+        getAll(data, Config.builder().flushThreshold(64 * 1024).build());
+    }
+
+    @Test
+    void withRowCache(@TempDir File data) throws IOException {
+        getAll(data, Config.builder().flushThreshold(64 * 1024).rowCacheSize(1024 * 1024).build());
+    }
+
+    private static void getAll(
+            final File data,
+            final Config config) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                values.put(key, value);
+                keys.add(key);
+            }
+            for (int i = 0; i < keys.size(); i += 7) {
+                dao.remove(keys.get(i));
+                values.remove(keys.get(i));
+            }
+            for (int i = 0; i < keys.size(); i += 5) {
+                final ByteBuffer value = randomValue();
+                dao.upsert(keys.get(i), value);
+                values.put(keys.get(i), value);
+            }
+
+            final List<ByteBuffer> request = new ArrayList<>(keys);
+            for (int i = 0; i < 100; i++) {
+                request.add(randomKey());
+            }
+            request.add(keys.get(1));
+            for (int round = 0; round < 2; round++) {
+                final Map<ByteBuffer, ByteBuffer> actual = dao.getAll(request);
+                assertEquals(values, actual);
+            }
+            assertTrue(dao.getAll(List.of()).isEmpty());
+            assertEquals(Map.of(keys.get(1), values.get(keys.get(1))), dao.getAll(List.of(keys.get(1))));
+        }
+    }
+
+    @Test
+    void olderTablesProbedForUnresolvedKeys(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(16 * 1024)
+                .compactionThreads(4)
+                .build();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(randomKey());
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            // Every key is in an older table and in a newer one
+            for (int round = 0; round < 2; round++) {
+                for (final ByteBuffer key : keys) {
+                    dao.upsert(key, randomValue());
+                }
+            }
+        }
+
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            final Stats before = dao.stats();
+            assertEquals(keys.size(), dao.getAll(keys).size());
+            final Stats after = dao.stats();
+            // Every key is probed in the empty memtable, then in the tables only until it is found
+            assertEquals(
+                    2 * keys.size() + after.getBloomFalsePositives() - before.getBloomFalsePositives(),
+                    after.getTablesProbed() - before.getTablesProbed());
+            assertEquals(before.getGet().getCount() + 1, after.getGet().getCount());
+        }
+    }
+
+    @Test
+    void closed(@TempDir File data) throws IOException {
+        final DAO dao = DAOFactory.create(data);
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(randomKey());
+        }
+        dao.close();
+        assertThrows(ClosedChannelException.class, () -> dao.getAll(keys));
+    }
+
+    @Test
+    void blockReadOnce(@TempDir File data) throws IOException {
+        final Config config = Config.builder().blockSize(256).build();
+        final NavigableMap<ByteBuffer, Cell> cells = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer key = randomKey();
+            cells.put(key, Cell.of(key, randomBuffer(8), 0));
+        }
+        final File file = new File(data, 0 + SSTable.SUFFIX);
+        SSTable.write(file, cells.values().iterator(), config, 0, 0);
+        final BlockCache cache = new BlockCache(1024 * 1024);
+        final SSTable table = new SSTable(file, 0, cache);
+
+        final List<ByteBuffer> keys = new ArrayList<>(cells.keySet());
+        final BitSet candidates = new BitSet();
+        candidates.set(0, keys.size());
+        final Cell[] found = new Cell[keys.size()];
+        table.get(keys, candidates, Long.MAX_VALUE, found);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(cells.get(keys.get(i)).getValue(), found[i].getValue());
+        }
+        assertEquals(table.blockCount(), cache.misses());
+        assertEquals(0, cache.hits());
+    }
+}
@@ -4,8 +4,20 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Unit tests for {@link Iters} facilities.
@@ -27,6 +39,44 @@ class ItersTest {
         assertEquals(6, Iterators.size(Iters.until(sixNumbers.iterator(), 100)));
     }
 
+    @Test
+    void untilKey() {
+        final ByteBuffer a = ByteBuffer.wrap(new byte[]{1});
+        final ByteBuffer b = ByteBuffer.wrap(new byte[]{2});
+        final ByteBuffer c = ByteBuffer.wrap(new byte[]{3});
+        final ByteBuffer empty = ByteBuffer.allocate(0);
+        final ImmutableList<Record> records = ImmutableList.of(Record.of(a, empty), Record.of(b, empty));
+
+        assertFalse(Iters.untilKey(records.iterator(), a).hasNext());
+        assertEquals(1, Iterators.size(Iters.untilKey(records.iterator(), b)));
+        assertEquals(2, Iterators.size(Iters.untilKey(records.iterator(), c)));
+        assertEquals(2, Iterators.size(Iters.downToKey(records.reverse().iterator(), a)));
+        assertEquals(1, Iterators.size(Iters.downToKey(records.reverse().iterator(), b)));
+        assertFalse(Iters.downToKey(records.reverse().iterator(), c).hasNext());
+    }
+
+    @Test
+    void untilIsLazy() {
+        final Iterator<Integer> source = ImmutableList.of(1, 2).iterator();
+        final Iterator<Integer> until = Iters.until(source, 2);
+        assertTrue(source.hasNext());
+        assertEquals(Integer.valueOf(1), until.next());
+        assertFalse(until.hasNext());
+    }
+
+    @Test
+    void downTo() {
+        assertFalse(Iters.downTo(Iters.empty(), 0).hasNext());
+
+        final ImmutableList<Integer> sixNumbers = ImmutableList.of(6, 5, 4, 3, 2, 1);
+
+        assertFalse(Iters.downTo(sixNumbers.iterator(), 7).hasNext());
+        assertEquals(1, Iterators.size(Iters.downTo(sixNumbers.iterator(), 6)));
+        assertEquals(3, Iterators.size(Iters.downTo(sixNumbers.iterator(), 4)));
+        assertEquals(6, Iterators.size(Iters.downTo(sixNumbers.iterator(), 1)));
+        assertEquals(6, Iterators.size(Iters.downTo(sixNumbers.iterator(), -100)));
+    }
+
     @Test
     void collapseEquals() {
         assertFalse(Iters.collapseEquals(Iters.empty()).hasNext());
@@ -39,4 +89,64 @@ class ItersTest {
                 ImmutableList.of(1, 2, 3, 5, 6),
                 ImmutableList.copyOf(collapsed));
     }
+
+    @Test
+    void merge() {
+        assertFalse(Iters.merge(ImmutableList.<Iterator<Integer>>of(), Comparator.naturalOrder()).hasNext());
+        assertFalse(Iters.merge(ImmutableList.of(Iters.<Integer>empty()), Comparator.naturalOrder()).hasNext());
+
+        final Integer[] merged = Iterators.toArray(
+                Iters.merge(
+                        ImmutableList.of(
+                                ImmutableList.of(1, 4, 7).iterator(),
+                                ImmutableList.<Integer>of().iterator(),
+                                ImmutableList.of(2, 4, 5, 9).iterator()),
+                        Comparator.<Integer>naturalOrder()),
+                Integer.class);
+        assertEquals(
+                ImmutableList.of(1, 2, 4, 5, 7, 9),
+                ImmutableList.copyOf(merged));
+    }
+
+    @Test
+    void mergeDescending() {
+        final Integer[] merged = Iterators.toArray(
+                Iters.mergeDescending(
+                        ImmutableList.of(
+                                ImmutableList.of(7, 4, 1).iterator(),
+                                ImmutableList.<Integer>of().iterator(),
+                                ImmutableList.of(9, 5, 4, 2).iterator()),
+                        Comparator.<Integer>naturalOrder()),
+                Integer.class);
+        assertEquals(
+                ImmutableList.of(9, 7, 5, 4, 2, 1),
+                ImmutableList.copyOf(merged));
+    }
+
+    @Test
+    void mergeNewestWins() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int sources = 1; sources <= 9; sources++) {
+            // Source 0 is the newest one
+            final NavigableMap<Integer, Integer> expected = new TreeMap<>();
+            final List<Iterator<Map.Entry<Integer, Integer>>> iters = new ArrayList<>();
+            for (int source = sources - 1; source >= 0; source--) {
+                final NavigableMap<Integer, Integer> contents = new TreeMap<>();
+                for (int i = 0; i < 100; i++) {
+                    contents.put(random.nextInt(200), source);
+                }
+                expected.putAll(contents);
+                iters.add(0, contents.entrySet().iterator());
+            }
+
+            final Iterator<Map.Entry<Integer, Integer>> actual =
+                    Iters.merge(iters, Map.Entry.comparingByKey());
+            for (final Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+                assertEquals(
+                        new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()),
+                        new AbstractMap.SimpleImmutableEntry<>(actual.next()));
+            }
+            assertFalse(actual.hasNext());
+        }
+    }
 }
@@ -0,0 +1,198 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the {@link Manifest} of the live tables.
+ */
+class ManifestTest extends TestBase {
+    private static final Config CONFIG = Config.builder().flushThreshold(64 * 1024).build();
+
+    @Test
+    void reopen(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = fill(data);
+        final List<String> tables;
+        final List<ByteBuffer> bounds;
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, CONFIG)) {
+            tables = describe(dao);
+            bounds = bounds(dao);
+            assertFalse(tables.isEmpty());
+        }
+
+        // The key bounds come from the manifest
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, CONFIG)) {
+            assertEquals(tables, describe(dao));
+            assertEquals(bounds, bounds(dao));
+            check(dao, values);
+        }
+    }
+
+    @Test
+    void unrecordedTableRemoved(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = fill(data);
+
+        // A table written by a flush interrupted before the manifest edit
+        final File orphan = new File(data, 1_000_000 + SSTable.SUFFIX);
+        SSTable.write(
+                orphan,
+                List.of(Cell.of(randomKey(), randomValue(), 1_000_000, Long.MAX_VALUE - 1)).iterator(),
+                CONFIG,
+                1_000_000,
+                0);
+
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, CONFIG)) {
+            assertFalse(orphan.exists());
+            check(dao, values);
+        }
+    }
+
+    @Test
+    void withoutManifest(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = fill(data);
+        Files.delete(new File(data, Manifest.FILE).toPath());
+
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, CONFIG)) {
+            check(dao, values);
+        }
+        assertTrue(new File(data, Manifest.FILE).exists());
+    }
+
+    @Test
+    void tornTail(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = fill(data);
+        try (FileOutputStream out = new FileOutputStream(new File(data, Manifest.FILE), true)) {
+            out.write(new byte[]{0, 0, 0, 42, 1, 2});
+        }
+
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, CONFIG)) {
+            check(dao, values);
+            final ByteBuffer key = randomKey();
+            final ByteBuffer value = randomValue();
+            dao.upsert(key, value);
+            values.put(key, value);
+        }
+
+        // Edits made after the torn tail are not lost
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, CONFIG)) {
+            check(dao, values);
+        }
+    }
+
+    @Test
+    void failedAppend(@TempDir File data) throws IOException {
+        failEdit(data, false);
+    }
+
+    @Test
+    void failedRewrite(@TempDir File data) throws IOException {
+        failEdit(data, true);
+    }
+
+    /**
+     * Fail an edit replacing all the tables with a new one, then reopen as if the DAO did the next edit.
+     */
+    private static void failEdit(
+            final File data,
+            final boolean rewrite) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> values = fill(data);
+        final File file = new File(data, 1_000_000 + SSTable.SUFFIX);
+        SSTable.write(
+                file,
+                List.of(Cell.of(randomKey(), randomValue(), 1_000_000, Long.MAX_VALUE - 1)).iterator(),
+                CONFIG,
+                1_000_000,
+                0);
+
+        final BlockCache cache = new BlockCache(0);
+        try (Manifest manifest = Manifest.open(data)) {
+            final List<SSTable> live = new ArrayList<>();
+            for (final long generation : manifest.live().keySet()) {
+                live.add(new SSTable(new File(data, generation + SSTable.SUFFIX), generation, cache));
+            }
+            final SSTable output = new SSTable(file, 1_000_000, cache);
+            manifest.rewrite();
+            if (rewrite) {
+                // The next edit rewrites the log
+                manifest.close();
+            }
+
+            // Writing to a channel fails if the thread is interrupted
+            Thread.currentThread().interrupt();
+            try {
+                assertThrows(IOException.class, () -> manifest.apply(live, List.of(output)));
+            } finally {
+                Thread.interrupted();
+            }
+            assertEquals(
+                    live.stream().map(SSTable::generation).collect(Collectors.toSet()),
+                    manifest.live().keySet());
+
+            // The DAO removes the unrecorded output and goes on
+            output.close();
+            Files.delete(file.toPath());
+            manifest.rewrite();
+        }
+
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, CONFIG)) {
+            check(dao, values);
+        }
+    }
+
+    private static Map<ByteBuffer, ByteBuffer> fill(final File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> values = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, CONFIG)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                values.put(key, value);
+            }
+            dao.compact();
+            for (int i = 0; i < 100; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    private static List<String> describe(final MyDAO dao) {
+        return dao.ssTables().stream()
+                .map(table -> table.generation() + "@" + table.level() + ":" + table.cellCount())
+                .collect(Collectors.toList());
+    }
+
+    private static List<ByteBuffer> bounds(final MyDAO dao) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        for (final SSTable table : dao.ssTables()) {
+            result.add(table.firstKey());
+            result.add(table.lastKey());
+        }
+        return result;
+    }
+
+    private static void check(
+            final DAO dao,
+            final Map<ByteBuffer, ByteBuffer> values) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+    }
+}
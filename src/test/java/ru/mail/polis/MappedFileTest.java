@@ -0,0 +1,52 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for segmented {@link MappedFile}.
+ */
+class MappedFileTest extends TestBase {
+    private static final int SEGMENT = 64;
+    private static final int OVERLAP = 16;
+
+    @Test
+    void acrossSegments(@TempDir File data) throws IOException {
+        final ByteBuffer contents = randomBuffer(SEGMENT * 5 + 7);
+        final File file = new File(data, "mapped");
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.READ)) {
+            channel.write(contents.duplicate());
+
+            final MappedFile mapped = new MappedFile(channel, SEGMENT, OVERLAP);
+            assertEquals(contents.remaining(), mapped.size());
+            for (int position = 0; position + Long.BYTES <= contents.remaining(); position++) {
+                assertEquals(contents.getInt(position), mapped.getInt(position));
+                assertEquals(contents.getLong(position), mapped.getLong(position));
+            }
+
+            for (final int length : new int[]{0, 1, OVERLAP, OVERLAP + 1, SEGMENT * 2 + 3}) {
+                for (int position = 0; position + length <= contents.remaining(); position += 5) {
+                    final ByteBuffer expected = contents.duplicate();
+                    expected.position(position).limit(position + length);
+                    assertEquals(expected, mapped.slice(position, length));
+                    assertEquals(0, mapped.compare(position, length, expected));
+                    assertEquals(
+                            Integer.signum(expected.compareTo(contents)),
+                            Integer.signum(mapped.compare(position, length, contents)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link MemTable} implementations.
+ */
+class MemTableTest extends TestBase {
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 2000;
+
+    @Test
+    void heap() throws Exception {
+        check(new HeapMemTable(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void offHeap() throws Exception {
+        check(new OffHeapMemTable(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void offHeapLaterSequenceWins() {
+        final MemTable table = new OffHeapMemTable(0, Long.MAX_VALUE);
+        final ByteBuffer key = randomKey();
+        final ByteBuffer older = randomBuffer(10);
+        final ByteBuffer newer = randomBuffer(20);
+        table.upsert(key, newer, 2);
+        table.upsert(key, older, 1);
+        assertEquals(newer, table.get(key).getValue());
+        table.remove(key, 3);
+        assertTrue(table.get(key).isTombstone());
+        assertNull(table.get(randomKey()));
+    }
+
+    @Test
+    void offHeapLargeValue() {
+        final MemTable table = new OffHeapMemTable(0, Long.MAX_VALUE);
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomBuffer(3 << 20);
+        table.upsert(key, value, 1);
+        assertEquals(value, table.get(key).getValue());
+    }
+
+    @Test
+    void offHeapSizeIsReservedMemory() {
+        final long limit = 64 * 1024;
+        final MemTable table = new OffHeapMemTable(0, limit);
+        assertTrue(table.sizeInBytes() > 0);
+        assertFalse(table.isFull());
+
+        // Values too large for the rest of a chunk leave its tail unused
+        long written = 0;
+        while (!table.isFull()) {
+            final ByteBuffer key = randomKey();
+            final ByteBuffer value = randomBuffer(3000);
+            table.upsert(key, value, written + 1);
+            written += key.remaining() + value.remaining();
+        }
+        assertTrue(table.sizeInBytes() >= limit);
+        assertTrue(written < limit);
+    }
+
+    private static void check(final MemTable table) throws Exception {
+        assertTrue(table.isEmpty());
+
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new ConcurrentSkipListMap<>();
+        final AtomicLong sequence = new AtomicLong();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                        final ByteBuffer key = randomKey();
+                        final ByteBuffer value = randomBuffer(1 + i % 100);
+                        table.upsert(key, value, sequence.incrementAndGet());
+                        expected.put(key, value);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertFalse(table.isEmpty());
+        final Iterator<Cell> actual = table.iterator(ByteBuffer.allocate(0));
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            final Cell cell = actual.next();
+            assertEquals(entry.getKey(), cell.getKey());
+            assertEquals(entry.getValue(), cell.getValue());
+            assertEquals(entry.getValue(), table.get(entry.getKey()).getValue());
+        }
+        assertFalse(actual.hasNext());
+
+        final ByteBuffer middle = expected.keySet().toArray(new ByteBuffer[0])[expected.size() / 2];
+        assertEquals(middle, table.iterator(middle).next().getKey());
+    }
+}
@@ -0,0 +1,88 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link LatencyHistogram} and {@link DAO#stats()}.
+ */
+class MetricsTest extends TestBase {
+    @Test
+    void histogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        final LatencyStats stats = histogram.snapshot();
+        assertEquals(10_000, stats.getCount());
+        assertEquals(10_000_000, stats.getMaxNanos());
+        assertWithin(5_000_000, stats.getP50Nanos());
+        assertWithin(9_900_000, stats.getP99Nanos());
+        assertWithin(5_000_500, stats.getMeanNanos());
+    }
+
+    @Test
+    void buckets() {
+        for (long value = 0; value < 100_000; value++) {
+            final int index = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.upperBound(index));
+            assertTrue(index == 0 || value > LatencyHistogram.upperBound(index - 1));
+        }
+        assertTrue(LatencyHistogram.index(Long.MAX_VALUE) >= 0);
+    }
+
+    private static void assertWithin(
+            final long expected,
+            final long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 8, expected + " vs " + actual);
+    }
+
+    @Test
+    void stats(@TempDir File data) throws IOException, JMException {
+        final ByteBuffer key = randomKey();
+        try (DAO dao = DAOFactory.create(data, Config.builder().flushThreshold(64 * 1024).build())) {
+            for (int i = 0; i < 200; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+            dao.upsert(key, randomValue());
+            dao.remove(randomKey());
+            for (int i = 0; i < 100; i++) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(randomKey()));
+            }
+            dao.get(key);
+            dao.iterator(key).next();
+            dao.compact();
+
+            final Stats stats = dao.stats();
+            assertEquals(201, stats.getUpsert().getCount());
+            assertEquals(1, stats.getRemove().getCount());
+            assertEquals(101, stats.getGet().getCount());
+            assertEquals(1, stats.getIterator().getCount());
+            assertEquals(101, stats.getLookups());
+            assertTrue(stats.getBloomNegatives() > 0);
+            assertTrue(stats.getBloomEffectiveness() > 0.5);
+            assertTrue(stats.getBytesFlushed() > 0);
+            assertTrue(stats.getBytesCompacted() > 0);
+            assertTrue(stats.getWriteAmplification() > 1.0);
+
+            final ObjectName name =
+                    new ObjectName("ru.mail.polis:type=DAO,name=" + ObjectName.quote(data.getAbsolutePath()));
+            final CompositeData jmx =
+                    (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Stats");
+            assertEquals(101L, jmx.get("lookups"));
+        }
+    }
+}
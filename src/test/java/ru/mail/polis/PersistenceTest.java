@@ -0,0 +1,111 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Functional tests for {@link DAO} data flushed to disk.
+ */
+class PersistenceTest extends TestBase {
+    private static final long SMALL_FLUSH_THRESHOLD = 64 * 1024;
+
+    @Test
+    void reopen(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void removeSurvivesReopen(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, randomValue());
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.remove(key);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void manyTables(@TempDir File data) throws IOException {
+        manyTables(data, Config.builder().flushThreshold(SMALL_FLUSH_THRESHOLD).build());
+    }
+
+    @Test
+    void manyTablesOffHeap(@TempDir File data) throws IOException {
+        manyTables(data, Config.builder().offHeapBudget(2 * SMALL_FLUSH_THRESHOLD).build());
+    }
+
+    private static void manyTables(
+            final File data,
+            final Config config) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                map.put(key, value);
+            }
+
+            // Overwrite and remove keys living in older tables
+            int i = 0;
+            for (final ByteBuffer key : map.keySet().toArray(new ByteBuffer[0])) {
+                if (i % 3 == 0) {
+                    final ByteBuffer value = randomValue();
+                    dao.upsert(key, value);
+                    map.put(key, value);
+                } else if (i % 3 == 1) {
+                    dao.remove(key);
+                    map.remove(key);
+                }
+                i++;
+            }
+
+            assertTrue(data.list().length > 1);
+            assertContains(dao, map);
+        }
+
+        try (DAO dao = DAOFactory.create(data, config)) {
+            assertContains(dao, map);
+        }
+    }
+
+    static void assertContains(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+
+        final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expectedIter = expected.entrySet().iterator();
+        final Iterator<Record> actualIter = dao.iterator(ByteBuffer.allocate(0));
+        while (expectedIter.hasNext()) {
+            final Map.Entry<ByteBuffer, ByteBuffer> entry = expectedIter.next();
+            final Record actual = actualIter.next();
+            assertEquals(entry.getKey(), actual.getKey());
+            assertEquals(entry.getValue(), actual.getValue());
+        }
+        assertFalse(actualIter.hasNext());
+    }
+}
@@ -0,0 +1,186 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DAO#removeRange(ByteBuffer, ByteBuffer)}.
+ */
+class RangeDeleteTest extends TestBase {
+    private static final int COUNT = 1000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void fill(
+            final DAO dao,
+            final int from,
+            final int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            dao.upsert(key(i), key(i));
+        }
+    }
+
+    private static List<ByteBuffer> keys(final Iterator<Record> records) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        records.forEachRemaining(record -> result.add(record.getKey()));
+        return result;
+    }
+
+    private static List<ByteBuffer> expected(final int... bounds) {
+        final List<ByteBuffer> result = new ArrayList<>();
+        for (int b = 0; b < bounds.length; b += 2) {
+            for (int i = bounds[b]; i < bounds[b + 1]; i++) {
+                result.add(key(i));
+            }
+        }
+        return result;
+    }
+
+    private static void assertRemoved(
+            final DAO dao,
+            final int from,
+            final int to) throws IOException {
+        assertEquals(expected(0, from, to, COUNT), keys(dao.iterator(ByteBuffer.allocate(0))));
+        assertEquals(expected(from - 10, from, to, to + 10), keys(dao.range(key(from - 10), key(to + 10))));
+        final List<ByteBuffer> descending = keys(dao.descendingIterator(null));
+        assertEquals(COUNT - (to - from), descending.size());
+        assertEquals(key(to), descending.get(COUNT - to - 1));
+        assertEquals(key(from - 1), descending.get(COUNT - to));
+        assertThrows(NoSuchElementException.class, () -> dao.get(key(from)));
+        assertThrows(NoSuchElementException.class, () -> dao.get(key(to - 1)));
+        assertEquals(key(to), dao.get(key(to)));
+        assertEquals(2, dao.getAll(List.of(key(from - 1), key(from), key((from + to) / 2), key(to))).size());
+    }
+
+    @Test
+    void memTable(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao, 0, COUNT);
+            dao.removeRange(key(100), key(900));
+            assertRemoved(dao, 100, 900);
+
+            dao.upsert(key(500), key(500));
+            assertEquals(key(500), dao.get(key(500)));
+            assertEquals(List.of(key(500)), keys(dao.range(key(100), key(900))));
+        }
+    }
+
+    @Test
+    void emptyRange(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            fill(dao, 0, COUNT);
+            dao.removeRange(key(500), key(500));
+            dao.removeRange(key(600), key(500));
+            assertEquals(COUNT, keys(dao.iterator(ByteBuffer.allocate(0))).size());
+        }
+    }
+
+    @Test
+    void persistent(@TempDir File data) throws IOException {
+        final Config config = Config.builder().flushThreshold(16 * 1024).build();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            fill(dao, 0, COUNT);
+            dao.removeRange(key(100), key(900));
+            assertRemoved(dao, 100, 900);
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            assertRemoved(dao, 100, 900);
+        }
+    }
+
+    @Test
+    void compaction(@TempDir File data) throws IOException {
+        final Config config = Config.builder().blockSize(256).build();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            fill(dao, 0, COUNT);
+            dao.compact();
+            final long misses = dao.stats().getBlockCacheMisses();
+
+            dao.removeRange(ByteBuffer.allocate(0), key(COUNT));
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+            dao.compact();
+
+            // The covered blocks are dropped without reading them
+            assertEquals(misses, dao.stats().getBlockCacheMisses());
+            for (final SSTable table : dao.ssTables()) {
+                assertEquals(0, table.cellCount());
+                assertTrue(table.rangeTombstones().isEmpty());
+            }
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+
+            fill(dao, 0, 10);
+            assertEquals(expected(0, 10), keys(dao.iterator(ByteBuffer.allocate(0))));
+        }
+    }
+
+    @Test
+    void keptForOlderTables(@TempDir File data) throws IOException {
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data)) {
+            fill(dao, 0, COUNT);
+            dao.compact();
+            dao.removeRange(key(100), key(900));
+            dao.upsert(key(COUNT), key(COUNT));
+            dao.compact();
+            assertEquals(expected(0, 100, 900, COUNT + 1), keys(dao.iterator(ByteBuffer.allocate(0))));
+            assertEquals(COUNT - 800 + 1, dao.ssTables().stream().mapToLong(SSTable::cellCount).sum());
+        }
+    }
+
+    @Test
+    void snapshot(@TempDir File data) throws IOException {
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data)) {
+            fill(dao, 0, COUNT);
+            try (Snapshot snapshot = dao.snapshot()) {
+                dao.removeRange(key(100), key(900));
+                dao.compact();
+                assertRemoved(dao, 100, 900);
+                assertEquals(expected(0, COUNT), keys(dao.iterator(ByteBuffer.allocate(0), snapshot)));
+                assertEquals(key(500), dao.get(key(500), snapshot));
+            }
+            dao.compact();
+            assertRemoved(dao, 100, 900);
+            for (final SSTable table : dao.ssTables()) {
+                assertTrue(table.rangeTombstones().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    void rowCache(@TempDir File data) throws IOException {
+        final Config config = Config.builder().rowCacheSize(1024 * 1024).build();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            fill(dao, 0, COUNT);
+            for (int i = 0; i < COUNT; i += 10) {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+            dao.removeRange(key(100), key(900));
+            assertRemoved(dao, 100, 900);
+            assertEquals(key(0), dao.get(key(0)));
+        }
+    }
+
+    @Test
+    void replayUnclosed(@TempDir File data) throws IOException {
+        // Simulate a crash by never closing the DAO
+        final DAO crashed = DAOFactory.create(data);
+        fill(crashed, 0, COUNT);
+        crashed.removeRange(key(100), key(900));
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertRemoved(dao, 100, 900);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link RowCache} and its use by {@link MyDAO}.
+ */
+class RowCacheTest extends TestBase {
+    @Test
+    void negativeEntries() {
+        final RowCache cache = new RowCache(1024 * 1024);
+        final ByteBuffer key = randomKey();
+        assertNull(cache.get(key));
+        cache.put(key, null, cache.stamp(key));
+        final RowCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertThrows(NoSuchElementException.class, entry::value);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void staleReadDiscarded() {
+        final RowCache cache = new RowCache(1024 * 1024);
+        final ByteBuffer key = randomKey();
+        final long stamp = cache.stamp(key);
+        cache.invalidate(key);
+        cache.put(key, randomValue(), stamp);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void rangeInvalidated() {
+        final RowCache cache = new RowCache(1024 * 1024);
+        for (int i = 0; i < 100; i++) {
+            final ByteBuffer key = ByteBuffer.wrap(new byte[]{(byte) i});
+            cache.put(key, key, cache.stamp(key));
+        }
+        final long size = cache.sizeInBytes();
+        cache.invalidate(ByteBuffer.wrap(new byte[]{10}), ByteBuffer.wrap(new byte[]{20}));
+        for (int i = 0; i < 100; i++) {
+            final RowCache.Entry entry = cache.get(ByteBuffer.wrap(new byte[]{(byte) i}));
+            if (i >= 10 && i < 20) {
+                assertNull(entry);
+            } else {
+                assertNotNull(entry);
+                assertSame(entry.value(), entry.value());
+            }
+        }
+        assertEquals(size * 90 / 100, cache.sizeInBytes());
+    }
+
+    @Test
+    void hotKeysSurviveScan() {
+        final int capacity = 256 * 1024;
+        final RowCache cache = new RowCache(capacity);
+        final List<ByteBuffer> hot = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            hot.add(randomKey());
+        }
+        for (int round = 0; round < 5; round++) {
+            for (final ByteBuffer key : hot) {
+                if (cache.get(key) == null) {
+                    cache.put(key, randomValue(), cache.stamp(key));
+                }
+            }
+        }
+
+        // Every cold key is seen once
+        for (int i = 0; i < 10_000; i++) {
+            final ByteBuffer key = randomKey();
+            if (cache.get(key) == null) {
+                cache.put(key, randomValue(), cache.stamp(key));
+            }
+        }
+        assertTrue(cache.sizeInBytes() <= capacity);
+
+        int retained = 0;
+        for (final ByteBuffer key : hot) {
+            if (cache.get(key) != null) {
+                retained++;
+            }
+        }
+        assertTrue(retained > hot.size() * 9 / 10, "Retained " + retained);
+    }
+
+    @Test
+    void consistentWithWrites(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .rowCacheSize(1024 * 1024)
+                .build();
+        final Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            final List<ByteBuffer> keys = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                keys.add(randomKey());
+            }
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < keys.size(); i++) {
+                    final ByteBuffer key = keys.get(i);
+                    if ((i + round) % 5 == 0) {
+                        dao.remove(key);
+                        values.remove(key);
+                    } else if ((i + round) % 3 == 0) {
+                        final ByteBuffer value = randomValue();
+                        dao.upsert(key, value);
+                        values.put(key, value);
+                    }
+                }
+                if (round % 7 == 6) {
+                    dao.compact();
+                }
+                for (final ByteBuffer key : keys) {
+                    final ByteBuffer expected = values.get(key);
+                    if (expected == null) {
+                        assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                    } else {
+                        assertEquals(expected, dao.get(key));
+                    }
+                }
+            }
+            assertTrue(dao.stats().getRowCacheHits() > 0);
+        }
+    }
+}
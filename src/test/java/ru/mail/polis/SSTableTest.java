@@ -0,0 +1,204 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link SSTable} format and {@link BlockCache}.
+ */
+class SSTableTest extends TestBase {
+    private static final int BLOCK_SIZE = 128;
+    private static final Config CONFIG = Config.builder().blockSize(BLOCK_SIZE).restartInterval(4).build();
+
+    @Test
+    void seek(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, Cell> cells = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            final ByteBuffer key = randomKey();
+            cells.put(key, i % 7 == 0 ? Cell.tombstone(key, 0) : Cell.of(key, randomBuffer(1 + i % 50), 0));
+        }
+        seek(new File(data, 0 + SSTable.SUFFIX), cells, CONFIG);
+    }
+
+    @Test
+    void sharedPrefixes(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, Cell> cells = new TreeMap<>();
+        final ByteBuffer prefix = randomBuffer(32);
+        for (int i = 0; i < 500; i++) {
+            final ByteBuffer key = join(join(prefix, randomBuffer(1 + i % 3)), randomBuffer(1 + i % 5));
+            cells.put(key, Cell.of(key, randomBuffer(8), 0));
+        }
+
+        final File full = new File(data, 0 + SSTable.SUFFIX);
+        seek(full, cells, Config.builder().blockSize(BLOCK_SIZE).restartInterval(1).build());
+        final File shared = new File(data, 1 + SSTable.SUFFIX);
+        seek(shared, cells, CONFIG);
+        assertTrue(shared.length() < full.length());
+    }
+
+    @Test
+    void bounded(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, Cell> cells = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            final ByteBuffer key = randomKey();
+            cells.put(key, Cell.of(key, randomBuffer(1 + i % 50), 0));
+        }
+        final File file = new File(data, 0 + SSTable.SUFFIX);
+        SSTable.write(file, cells.values().iterator(), CONFIG, 0, 0);
+        final SSTable table = new SSTable(file, 0, new BlockCache(1024 * 1024));
+
+        final List<ByteBuffer> keys = new ArrayList<>(cells.keySet());
+        for (int i = 0; i < 100; i++) {
+            final ByteBuffer from = keys.get(i * 3);
+            final ByteBuffer to = keys.get(i * 3 + i % 7);
+            final Iterator<Cell> actual = table.versions(from, to);
+            for (final Cell expected : cells.subMap(from, to).values()) {
+                assertEquals(expected.getKey(), actual.next().getKey());
+            }
+            assertFalse(actual.hasNext());
+        }
+
+        // The block past the bound is not loaded
+        final BlockCache fresh = new BlockCache(1024 * 1024);
+        final SSTable cold = new SSTable(file, 1, fresh);
+        final Iterator<Cell> range = cold.versions(
+                cold.blockKey(cold.blockCount() - 2),
+                cold.blockKey(cold.blockCount() - 1));
+        while (range.hasNext()) {
+            range.next();
+        }
+        assertEquals(1, fresh.misses());
+    }
+
+    @Test
+    void descending(@TempDir File data) throws IOException {
+        final NavigableSet<Cell> cells = new TreeSet<>(Cell.VERSION_COMPARATOR);
+        long sequence = 0;
+        for (int i = 0; i < 300; i++) {
+            final ByteBuffer key = randomKey();
+            for (int version = 0; version <= i % 3; version++) {
+                cells.add(
+                        version == 1
+                                ? Cell.tombstone(key, 0, ++sequence)
+                                : Cell.of(key, randomBuffer(1 + i % 20), 0, ++sequence));
+            }
+        }
+        final File file = new File(data, 0 + SSTable.SUFFIX);
+        SSTable.write(file, cells.iterator(), CONFIG, 0, 0);
+        final SSTable table = new SSTable(file, 0, new BlockCache(1024 * 1024));
+
+        final List<ByteBuffer> probes = new ArrayList<>();
+        for (final Cell cell : cells) {
+            probes.add(cell.getKey());
+        }
+        for (int i = 0; i < 50; i++) {
+            probes.add(randomKey());
+        }
+        probes.add(ByteBuffer.allocate(0));
+        probes.add(null);
+        for (final ByteBuffer probe : probes) {
+            final NavigableSet<Cell> expected = probe == null
+                    ? cells
+                    : cells.headSet(Cell.tombstone(probe, 0, Long.MAX_VALUE), false);
+            final Iterator<Cell> actual = table.descendingVersions(probe);
+            for (final Cell e : expected.descendingSet()) {
+                final Cell a = actual.next();
+                assertEquals(e.getKey(), a.getKey());
+                assertEquals(e.getSequence(), a.getSequence());
+                assertEquals(e.getValue(), a.getValue());
+            }
+            assertFalse(actual.hasNext());
+        }
+    }
+
+    private static void seek(
+            final File file,
+            final NavigableMap<ByteBuffer, Cell> cells,
+            final Config config) throws IOException {
+        SSTable.write(file, cells.values().iterator(), config, 0, 0);
+        final SSTable table = new SSTable(file, 0, new BlockCache(1024 * 1024));
+        assertEquals(cells.size(), table.cellCount());
+        assertEquals(cells.firstKey(), table.firstKey());
+        assertEquals(cells.lastKey(), table.lastKey());
+
+        final List<ByteBuffer> probes = new ArrayList<>(cells.keySet());
+        for (int i = 0; i < 100; i++) {
+            probes.add(randomKey());
+        }
+        probes.add(ByteBuffer.allocate(0));
+        for (final ByteBuffer probe : probes) {
+            final Iterator<Cell> expected = cells.tailMap(probe).values().iterator();
+            final Iterator<Cell> actual = table.iterator(probe);
+            while (expected.hasNext()) {
+                final Cell e = expected.next();
+                final Cell a = actual.next();
+                assertEquals(e.getKey(), a.getKey());
+                assertEquals(e.getValue(), a.getValue());
+            }
+            assertFalse(actual.hasNext());
+
+            final Cell cell = table.get(probe);
+            if (cells.containsKey(probe)) {
+                assertNotNull(cell);
+                assertEquals(cells.get(probe).getValue(), cell.getValue());
+            } else {
+                assertNull(cell);
+            }
+        }
+    }
+
+    @Test
+    void empty(@TempDir File data) throws IOException {
+        final File file = new File(data, 0 + SSTable.SUFFIX);
+        SSTable.write(file, Iters.empty(), CONFIG, 0, 0);
+        final SSTable table = new SSTable(file, 0, new BlockCache(0));
+        assertFalse(table.iterator(randomKey()).hasNext());
+    }
+
+    @Test
+    void cacheCounters(@TempDir File data) throws IOException {
+        final Config config = Config.builder().flushThreshold(64 * 1024).build();
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            dao.upsert(key, value);
+            for (int i = 0; i < 100; i++) {
+                dao.upsert(randomKey(), randomValue());
+            }
+
+            final BlockCache cache = dao.blockCache();
+            assertEquals(value, dao.get(key));
+            final long misses = cache.misses();
+            assertEquals(value, dao.get(key));
+            assertEquals(value, dao.get(key));
+            assertEquals(misses, cache.misses());
+            assertTrue(cache.hits() > 0);
+        }
+    }
+
+    @Test
+    void cacheEviction() throws IOException {
+        final int blockSize = 64;
+        final BlockCache cache = new BlockCache(16 * 4 * blockSize);
+        final ByteBuffer data = ByteBuffer.allocate(blockSize);
+        for (long offset = 0; offset < 1000; offset++) {
+            cache.get(0, offset, () -> new Block(data));
+        }
+        assertEquals(1000, cache.misses());
+        assertTrue(cache.sizeInBytes() <= 16 * 4 * blockSize);
+        assertTrue(cache.evictions() > 0);
+    }
+}
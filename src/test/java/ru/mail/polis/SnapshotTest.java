@@ -0,0 +1,192 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DAO#snapshot()}.
+ */
+class SnapshotTest extends TestBase {
+    private static final long SMALL_FLUSH_THRESHOLD = 64 * 1024;
+
+    @Test
+    void pointInTime(@TempDir File data) throws IOException {
+        pointInTime(data, Config.builder().flushThreshold(SMALL_FLUSH_THRESHOLD).build());
+    }
+
+    @Test
+    void pointInTimeOffHeap(@TempDir File data) throws IOException {
+        pointInTime(
+                data,
+                Config.builder()
+                        .flushThreshold(SMALL_FLUSH_THRESHOLD)
+                        .offHeapBudget(1024 * 1024)
+                        .build());
+    }
+
+    private static void pointInTime(
+            final File data,
+            final Config config) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> before = new TreeMap<>();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < 200; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                dao.upsert(key, value);
+                before.put(key, value);
+            }
+
+            try (Snapshot snapshot = dao.snapshot()) {
+                final NavigableMap<ByteBuffer, ByteBuffer> after = new TreeMap<>(before);
+                int i = 0;
+                for (final ByteBuffer key : before.keySet()) {
+                    if (i % 3 == 0) {
+                        dao.remove(key);
+                        after.remove(key);
+                    } else if (i % 3 == 1) {
+                        final ByteBuffer value = randomValue();
+                        dao.upsert(key, value);
+                        after.put(key, value);
+                    }
+                    i++;
+                }
+                final ByteBuffer added = randomKey();
+                dao.upsert(added, randomValue());
+
+                assertContains(dao, snapshot, before);
+                assertThrows(NoSuchElementException.class, () -> dao.get(added, snapshot));
+                dao.compact();
+                assertContains(dao, snapshot, before);
+
+                after.put(added, dao.get(added));
+                PersistenceTest.assertContains(dao, after);
+            }
+        }
+    }
+
+    @Test
+    void range(@TempDir File data) throws IOException {
+        final ByteBuffer a = ByteBuffer.wrap(new byte[]{1});
+        final ByteBuffer b = ByteBuffer.wrap(new byte[]{2});
+        final ByteBuffer c = ByteBuffer.wrap(new byte[]{3});
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(a, value);
+            dao.upsert(b, value);
+            try (Snapshot snapshot = dao.snapshot()) {
+                dao.remove(a);
+                dao.upsert(c, value);
+
+                final Iterator<Record> range = dao.range(a, c, snapshot);
+                assertEquals(a, range.next().getKey());
+                assertEquals(b, range.next().getKey());
+                assertFalse(range.hasNext());
+                assertEquals(b, dao.range(a, c).next().getKey());
+            }
+        }
+    }
+
+    @Test
+    void atomicBatches(@TempDir File data) throws Exception {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add(randomKey());
+        }
+
+        try (DAO dao = DAOFactory.create(data, Config.builder().flushThreshold(SMALL_FLUSH_THRESHOLD).build())) {
+            final AtomicBoolean done = new AtomicBoolean();
+            final Thread writer = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        final ByteBuffer value = randomValue();
+                        final WriteBatch batch = new WriteBatch();
+                        for (final ByteBuffer key : keys) {
+                            batch.upsert(key, value);
+                        }
+                        dao.write(batch);
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            writer.start();
+            try {
+                for (int i = 0; i < 100; i++) {
+                    try (Snapshot snapshot = dao.snapshot()) {
+                        ByteBuffer expected = null;
+                        final Iterator<Record> iter = dao.iterator(ByteBuffer.allocate(0), snapshot);
+                        while (iter.hasNext()) {
+                            final ByteBuffer value = iter.next().getValue();
+                            if (expected == null) {
+                                expected = value;
+                            }
+                            assertEquals(expected, value);
+                        }
+                    }
+                }
+            } finally {
+                done.set(true);
+                writer.join();
+            }
+        }
+    }
+
+    @Test
+    void closedReleasesVersions(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data)) {
+            dao.upsert(key, randomValue());
+            final Snapshot snapshot = dao.snapshot();
+            dao.upsert(key, randomValue());
+            dao.compact();
+            assertEquals(2, cellCount(dao));
+
+            snapshot.close();
+            assertThrows(IllegalStateException.class, () -> dao.get(key, snapshot));
+            dao.upsert(randomKey(), randomValue());
+            dao.compact();
+            assertEquals(2, cellCount(dao));
+        }
+    }
+
+    private static long cellCount(final MyDAO dao) {
+        long result = 0;
+        for (final SSTable table : dao.ssTables()) {
+            result += table.cellCount();
+        }
+        return result;
+    }
+
+    private static void assertContains(
+            final DAO dao,
+            final Snapshot snapshot,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey(), snapshot));
+        }
+
+        final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expectedIter = expected.entrySet().iterator();
+        final Iterator<Record> actualIter = dao.iterator(ByteBuffer.allocate(0), snapshot);
+        while (expectedIter.hasNext()) {
+            final Map.Entry<ByteBuffer, ByteBuffer> entry = expectedIter.next();
+            final Record actual = actualIter.next();
+            assertEquals(entry.getKey(), actual.getKey());
+            assertEquals(entry.getValue(), actual.getValue());
+        }
+        assertFalse(actualIter.hasNext());
+    }
+}
@@ -0,0 +1,94 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for tombstone purging and skipping.
+ */
+class TombstoneTest extends TestBase {
+    private static final int COUNT = 200;
+
+    @Test
+    void purgeNeverExisting(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < COUNT; i++) {
+                dao.remove(randomKey());
+            }
+        }
+        assertEquals(0, tombstones(data));
+    }
+
+    @Test
+    void keepShadowing(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < COUNT; i++) {
+                final ByteBuffer key = randomKey();
+                dao.upsert(key, randomValue());
+                keys.add(key);
+            }
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            for (final ByteBuffer key : keys) {
+                dao.remove(key);
+            }
+        }
+        assertEquals(COUNT, tombstones(data));
+        try (DAO dao = DAOFactory.create(data)) {
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+    }
+
+    @Test
+    void skipDeletedRange(@TempDir File data) throws IOException {
+        final Config config = Config.builder().blockSize(256).build();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (int i = 0; i < COUNT; i++) {
+                final ByteBuffer key = randomKey();
+                dao.upsert(key, randomValue());
+                keys.add(key);
+            }
+        }
+        try (DAO dao = DAOFactory.create(data, config)) {
+            for (final ByteBuffer key : keys) {
+                dao.remove(key);
+            }
+        }
+        try (MyDAO dao = (MyDAO) DAOFactory.create(data, config)) {
+            final BlockCache cache = dao.blockCache();
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+            final long first = cache.hits() + cache.misses();
+            assertTrue(first > 0);
+
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+            assertEquals(first, cache.hits() + cache.misses());
+
+            // Fresh writes inside the range are still visible
+            final ByteBuffer value = randomValue();
+            dao.upsert(keys.get(0), value);
+            assertEquals(value, dao.iterator(ByteBuffer.allocate(0)).next().getValue());
+        }
+    }
+
+    private static long tombstones(final File data) throws IOException {
+        long result = 0;
+        final File[] files = data.listFiles((dir, name) -> name.endsWith(SSTable.SUFFIX));
+        assertNotNull(files);
+        for (final File file : files) {
+            try (SSTable table = new SSTable(file, 0, new BlockCache(0))) {
+                result += table.tombstoneCount();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link DAO#write(WriteBatch)}.
+ */
+class WriteBatchTest extends TestBase {
+    @Test
+    void write(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+        final ByteBuffer removed = randomKey();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(removed, randomValue());
+
+            final WriteBatch batch = new WriteBatch();
+            for (int i = 0; i < 1000; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomValue();
+                batch.upsert(key, value);
+                map.put(key, value);
+            }
+            batch.remove(removed);
+            assertEquals(1001, batch.size());
+            dao.write(batch);
+
+            PersistenceTest.assertContains(dao, map);
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            PersistenceTest.assertContains(dao, map);
+        }
+    }
+
+    @Test
+    void lastWins(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.write(new WriteBatch().upsert(key, randomValue()).remove(key).upsert(key, value));
+            assertEquals(value, dao.get(key));
+
+            dao.write(new WriteBatch().upsert(key, randomValue()).remove(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void replay(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        final ByteBuffer removed = randomKey();
+
+        // Simulate a crash by never closing the DAO
+        final DAO crashed = DAOFactory.create(data);
+        crashed.upsert(removed, randomValue());
+        crashed.write(new WriteBatch().upsert(key, value).remove(removed));
+
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+    }
+}